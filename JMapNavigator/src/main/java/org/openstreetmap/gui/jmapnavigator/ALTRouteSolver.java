@@ -0,0 +1,80 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import org.openstreetmap.gui.jmapnavigator.GraphArtifactStore.ArtifactListener;
+import org.openstreetmap.gui.jmapnavigator.Landmarks.Selection;
+
+
+/**
+ * ALT route solver: A* with lower bounds from {@link Landmarks} and the triangle inequality. Each query uses the landmarks giving
+ * the best bound from start to target, the heuristic is the maximum of the landmark bound and the geodesic bound of A*.
+ * <p>
+ * Landmarks are loaded from the artifact store or built in background after construction. Until then routes are calculated with
+ * the geodesic bound only.
+ */
+public class ALTRouteSolver extends AStarRouteSolver {
+
+	private final Selection selection;
+	// Set once when loaded or built, not replaced afterwards
+	private volatile Landmarks landmarks;
+
+
+
+	/**
+	 * Constructor, starts loading or building the landmarks in background
+	 */
+	public ALTRouteSolver(RoutingService routingService, GraphArtifactStore artifactStore, Selection selection) {
+		super(routingService);
+		this.selection = selection;
+
+		artifactStore.loadOrBuildAsync(Landmarks.getArtifactName(selection), Landmarks.ARTIFACT_VERSION, Landmarks.ARTIFACT_CODEC,
+				Landmarks.createArtifactBuilder(selection), new ArtifactListener<Landmarks>() {
+
+					@Override
+					public void artifactReady(Landmarks artifact) {
+						landmarks = artifact;
+						System.out.println("Landmarks " + ALTRouteSolver.this.selection + " ready");
+					}
+				});
+	}
+
+
+	@Override
+	public String getName() {
+		return "ALT " + selection;
+	}
+
+	public boolean isLandmarksReady() {
+		return landmarks != null;
+	}
+
+
+
+	@Override
+	protected RouteResult doRouting(SearchContext context) {
+		Landmarks queryLandmarks = landmarks;
+		if (queryLandmarks == null) {
+			System.out.println("Landmarks not ready yet, using A* bound only");
+		}
+		else {
+			if (context.landmarkQuery == null) {
+				context.landmarkQuery = new Landmarks.Query();
+			}
+			context.landmarkQuery.init(queryLandmarks, context.startPoint, context.targetPoint);
+		}
+		return super.doRouting(context);
+	}
+
+
+	/**
+	 * Maximum of both lower bounds is a lower bound as well
+	 */
+	@Override
+	protected float calcHeuristic(SearchContext context, int nodeIndex) {
+		float bound = super.calcHeuristic(context, nodeIndex);
+		Landmarks.Query query = context.landmarkQuery;
+		if (query != null && query.isActive()) {
+			bound = Math.max(bound, query.calcLowerBound(nodeIndex));
+		}
+		return bound;
+	}
+}
@@ -0,0 +1,40 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+
+/**
+ * A* route solver. Uses the geodesic distance to the target, travelled at the maximum speed of the graph, as lower bound of the
+ * remaining route time. This never overestimates, so routes are the same as with Dijkstra.
+ */
+public class AStarRouteSolver extends DijkstraRouteSolver {
+
+	// Compensates float rounding to keep heuristic admissible
+	private static final float HEURISTIC_SAFETY_FACTOR = 0.9999f;
+
+	private final float maxSpeedInv;
+
+
+
+	public AStarRouteSolver(RoutingService routingService) {
+		super(routingService);
+
+		float maxSpeed = graph.getMaxSpeed();
+		maxSpeedInv = (maxSpeed > 0.0f) ? HEURISTIC_SAFETY_FACTOR / maxSpeed : 0.0f;
+	}
+
+
+	@Override
+	public String getName() {
+		return "A*";
+	}
+
+
+	/**
+	 * Uses calcNodeDistPrecise, calcNodeDistFast is not accurate enough to be a lower bound. Also a lower bound if the target point
+	 * is on a road, the part of the road to it is not shorter than the direct distance.
+	 */
+	@Override
+	protected float calcHeuristic(SearchContext context, int nodeIndex) {
+		return Utils.calcNodeDistPrecise(graph.getNodeLat(nodeIndex), graph.getNodeLon(nodeIndex), context.targetPoint.Lat,
+				context.targetPoint.Lon) * maxSpeedInv;
+	}
+}
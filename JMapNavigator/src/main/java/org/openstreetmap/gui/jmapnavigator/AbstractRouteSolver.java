@@ -0,0 +1,518 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.openstreetmap.gui.jmapnavigator.RouteResult.Status;
+import org.openstreetmap.gui.jmapnavigator.SearchContext.SearchListener;
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Base class for route solvers on a {@link RouteGraph}. Holds start, target, routing state and results for display, subclasses
+ * implement the actual search in {@link #doRouting(SearchContext)}. Searches keep all query state in the given
+ * {@link SearchContext}, so one solver can run many queries concurrently on a {@link RoutingService}.
+ */
+public abstract class AbstractRouteSolver implements IRouteSolver {
+
+	protected final RouteGraph graph;
+	protected final RoutingService routingService;
+
+	protected volatile RoutingState state = RoutingState.NotReady;
+	protected RoutePoint startPoint = null;
+	protected RoutePoint targetPoint = null;
+	private volatile Runnable displayRefreshListener;
+
+	// Debugging and routing preview
+	private List<Coordinate> routingPreviewDots = new LinkedList<>();
+	private static final double routingPreviewDotPropability = 0.999;
+	private Random rd;
+
+	// Final route
+	private volatile RouteResult routeResult;
+	private volatile Integer bestCandidateNode;
+	// Query started from user interface, null if not routing
+	private volatile CompletableFuture<RouteResult> currentQuery;
+	// Priority queue used by searches of this solver
+	private volatile INodeQueue.Type queueType = INodeQueue.Type.BinaryHeap;
+
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param routingService
+	 *            Service to run queries on, determines graph to route on
+	 */
+	public AbstractRouteSolver(RoutingService routingService) {
+		this.graph = routingService.getGraph();
+		this.routingService = routingService;
+	}
+
+
+
+	/**
+	 * @return Name of the solver, displayed for solver selection
+	 */
+	public abstract String getName();
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+
+	public INodeQueue.Type getQueueType() {
+		return queueType;
+	}
+
+	/**
+	 * Selects priority queue for following queries. The radix queue requires that searches never add values smaller than the
+	 * last removed value, which is true for all solvers here.
+	 */
+	public void setQueueType(INodeQueue.Type queueType) {
+		this.queueType = queueType;
+	}
+
+
+
+	@Override
+	public CompletableFuture<RouteResult> calculateRoute(RoutePoint start, RoutePoint target, RouteOptions options) {
+		return routingService.submit(this, start, target, options);
+	}
+
+
+	@Override
+	public void startCalculateRoute() {
+
+		if (state != RoutingState.Standby && state != RoutingState.Routing) {
+			System.err.println("Routing not available");
+			return;
+		}
+
+		if (startPoint == null || targetPoint == null) {
+			System.err.println("Cannot calculate route: Must select any start and target");
+			return;
+		}
+
+		// Restart if still routing
+		cancelCurrentQuery();
+
+		this.state = RoutingState.Routing;
+		requestDisplayRefresh();
+
+		rd = new Random(123);
+		clearPreviewDots();
+
+		System.out.println("Start routing from " + startPoint + " to " + targetPoint + " using " + getName());
+		System.out.flush();
+
+		RouteOptions options = RouteOptions.DEFAULT.withProgressListener(new SearchListener() {
+
+			@Override
+			public void nodeSettled(int nodeIndex) {
+				bestCandidateNode = nodeIndex;
+				visitPreviewNode(nodeIndex);
+			}
+		});
+		final CompletableFuture<RouteResult> query = calculateRoute(startPoint, targetPoint, options);
+		currentQuery = query;
+		query.whenComplete(new BiConsumer<RouteResult, Throwable>() {
+
+			@Override
+			public void accept(RouteResult result, Throwable error) {
+				if (currentQuery != query) {
+					// Replaced by a newer query
+					return;
+				}
+				currentQuery = null;
+
+				if (error instanceof CancellationException) {
+					System.out.println("Routing cancelled");
+				}
+				else if (error != null) {
+					System.err.println("Routing failed");
+					error.printStackTrace();
+				}
+				else {
+					routeResult = result;
+					System.out.println("Finished routing: " + result);
+					if (result.reachesTarget()) {
+						printRouteTime(result.getRouteTime());
+					}
+					else if (result.getStatus() == Status.NoRoute) {
+						System.err.println("No way found");
+					}
+					else {
+						System.err.println("Routing stopped without route to target: " + result.getStatus());
+					}
+				}
+				bestCandidateNode = null;
+				state = RoutingState.Standby;
+				requestDisplayRefresh();
+			}
+		});
+	}
+
+
+	/**
+	 * Cancels query started from user interface if still running, its result is discarded
+	 */
+	private void cancelCurrentQuery() {
+		CompletableFuture<RouteResult> query = currentQuery;
+		if (query != null) {
+			currentQuery = null;
+			query.cancel(false);
+		}
+	}
+
+
+	/**
+	 * Performs search from context start point to target point, called in routing thread. Must not change fields of the solver,
+	 * all query state is kept in the context.
+	 *
+	 * @return Result of search
+	 */
+	protected abstract RouteResult doRouting(SearchContext context);
+
+
+	/**
+	 * Adds a node to the routing preview with a low probability
+	 */
+	private void visitPreviewNode(int nodeIndex) {
+		if (rd.nextFloat() > routingPreviewDotPropability) {
+			addNewPreviewDot(getNodeCoordinates(nodeIndex));
+			requestDisplayRefresh();
+		}
+	}
+
+
+	/**
+	 * Creates result by following predecessors of the node the route to the target point was found over
+	 *
+	 * @param foundNode
+	 *            Last node before target point or -1 if route does not pass any node
+	 * @param routeDist
+	 *            Route time from start point to target point, infinite if no route found
+	 */
+	protected RouteResult createResult(SearchContext context, int foundNode, float routeDist) {
+		return createResult(context, context.forwardTree.collectPath(foundNode), routeDist);
+	}
+
+	/**
+	 * Creates result from route nodes, adds start and target points if they are not located at nodes
+	 *
+	 * @param routeNodes
+	 *            Nodes of route ordered from target to start
+	 * @param routeDist
+	 *            Route time from start point to target point, infinite if no route found
+	 */
+	protected RouteResult createResult(SearchContext context, IntArrayList routeNodes, float routeDist) {
+		Status status;
+		if (context.stopReason != null) {
+			status = context.stopReason;
+		}
+		else {
+			status = (routeDist != Float.POSITIVE_INFINITY) ? Status.Found : Status.NoRoute;
+		}
+		return buildResult(context, status, true, routeNodes, routeDist);
+	}
+
+	/**
+	 * Creates partial result for a stopped search which did not reach the target yet
+	 *
+	 * @param routeNodes
+	 *            Nodes of route ordered from candidate node to start, empty if there is no candidate
+	 * @param routeDist
+	 *            Route time from start point to candidate node
+	 */
+	protected RouteResult createPartialResult(SearchContext context, IntArrayList routeNodes, float routeDist) {
+		if (routeNodes.isEmpty()) {
+			routeDist = Float.POSITIVE_INFINITY;
+		}
+		return buildResult(context, context.stopReason, false, routeNodes, routeDist);
+	}
+
+	private RouteResult buildResult(SearchContext context, Status status, boolean reachesTarget, IntArrayList routeNodes,
+			float routeDist) {
+		List<Coordinate> route = new ArrayList<>();
+
+		if (routeDist != Float.POSITIVE_INFINITY) {
+			EdgeGeometry geometry = graph.getEdgeGeometry();
+			RoutePoint startPoint = context.startPoint;
+			RoutePoint targetPoint = context.targetPoint;
+			if (reachesTarget && (!targetPoint.isNode() || routeNodes.isEmpty())) {
+				route.add(new Coordinate(targetPoint.Lat, targetPoint.Lon));
+			}
+			if (geometry != null && reachesTarget && !targetPoint.isNode()) {
+				if (routeNodes.isEmpty()) {
+					// Start and target on same road
+					appendPointsBetween(geometry, startPoint, getFractionOnRoad(startPoint, targetPoint), startPoint.Fraction,
+							route);
+				}
+				else {
+					appendPointsToNode(geometry, targetPoint, routeNodes.getInt(0), false, route);
+				}
+			}
+			for (int i = 0; i < routeNodes.size(); i++) {
+				route.add(getNodeCoordinates(routeNodes.getInt(i)));
+				if (geometry != null && i + 1 < routeNodes.size()) {
+					int edge = graph.findEdge(routeNodes.getInt(i + 1), routeNodes.getInt(i));
+					if (edge != -1) {
+						geometry.appendPoints(edge, true, route);
+					}
+				}
+			}
+			if (geometry != null && !startPoint.isNode() && !routeNodes.isEmpty()) {
+				appendPointsToNode(geometry, startPoint, routeNodes.getInt(routeNodes.size() - 1), true, route);
+			}
+			if (!startPoint.isNode() || routeNodes.isEmpty()) {
+				route.add(new Coordinate(startPoint.Lat, startPoint.Lon));
+			}
+		}
+
+		return new RouteResult(getName(), status, reachesTarget, context.startPoint, context.targetPoint, route, routeDist,
+				context.getSettledNodeCount(), System.currentTimeMillis() - context.startTime);
+	}
+
+	/**
+	 * Adds shape points of the road of a point between the point and one of its nodes
+	 *
+	 * @param fromNode
+	 *            Add points from node to point instead of from point to node
+	 */
+	private void appendPointsToNode(EdgeGeometry geometry, RoutePoint point, int node, boolean fromNode, List<Coordinate> route) {
+		float nodeFraction = (node == point.NodeA) ? 0.0f : 1.0f;
+		if (fromNode) {
+			appendPointsBetween(geometry, point, nodeFraction, point.Fraction, route);
+		}
+		else {
+			appendPointsBetween(geometry, point, point.Fraction, nodeFraction, route);
+		}
+	}
+
+	/**
+	 * Adds shape points of the road of a point between two positions on it
+	 */
+	private void appendPointsBetween(EdgeGeometry geometry, RoutePoint point, float fromFraction, float toFraction,
+			List<Coordinate> route) {
+		int edge = graph.findEdge(point.NodeA, point.NodeB);
+		if (edge != -1) {
+			geometry.appendPoints(edge, fromFraction, toFraction, route);
+		}
+	}
+
+	/**
+	 * @return Position of point on road of other point, as fraction from node A of other point
+	 */
+	private static float getFractionOnRoad(RoutePoint other, RoutePoint point) {
+		return (point.NodeA == other.NodeA) ? point.Fraction : 1.0f - point.Fraction;
+	}
+
+	/**
+	 * Best candidate for a partial route: Node settled by forward search with the smallest geodesic distance to the target
+	 *
+	 * @return Node index or -1 if no node was settled
+	 */
+	protected int findBestCandidate(SearchContext context) {
+		int candidate = -1;
+		float candidateDist = Float.POSITIVE_INFINITY;
+		SearchTree tree = context.forwardTree;
+		for (int i = 0; i < tree.getSettledNodeCount(); i++) {
+			int nodeIndex = tree.getSettledNode(i);
+			float dist = Utils.calcNodeDistPrecise(graph.getNodeLat(nodeIndex), graph.getNodeLon(nodeIndex), context.targetPoint.Lat,
+					context.targetPoint.Lon);
+			if (candidate == -1 || dist < candidateDist) {
+				candidate = nodeIndex;
+				candidateDist = dist;
+			}
+		}
+		return candidate;
+	}
+
+	protected static void printRouteTime(float timeOfRoute) {
+		double timeOfRouteHours = timeOfRoute / 3600;
+		int timeHours = (int) (timeOfRouteHours);
+		int timeMinutes = (int) (60 * (timeOfRouteHours - timeHours));
+		int timeSeconds = (int) (3600 * (timeOfRouteHours - timeHours - (double) timeMinutes / 60));
+		System.out.println("Route time: " + timeHours + ":" + timeMinutes + ":" + timeSeconds);
+	}
+
+
+
+	// Start and end for route
+	@Override
+	public void setStartNode(int nodeGridIndex) {
+		setStartPoint(RoutePoint.ofNode(graph, nodeGridIndex));
+	}
+
+	@Override
+	public void setTargetNode(int nodeGridIndex) {
+		setTargetPoint(RoutePoint.ofNode(graph, nodeGridIndex));
+	}
+
+	@Override
+	public void setStartPoint(RoutePoint point) {
+		stopStaleQuery();
+		startPoint = point;
+		requestDisplayRefresh();
+	}
+
+	@Override
+	public void setTargetPoint(RoutePoint point) {
+		stopStaleQuery();
+		targetPoint = point;
+		requestDisplayRefresh();
+	}
+
+	@Override
+	public void cancelCalculateRoute() {
+		stopStaleQuery();
+	}
+
+	/**
+	 * Cancels running query after start or target changed, result would be outdated
+	 */
+	private void stopStaleQuery() {
+		CompletableFuture<RouteResult> query = currentQuery;
+		if (query != null) {
+			// Callback of query resets state
+			query.cancel(false);
+		}
+	}
+
+	@Override
+	public Coordinate getStartCoordinate() {
+		RoutePoint point = startPoint;
+		if (point == null) {
+			return null;
+		}
+		return new Coordinate(point.Lat, point.Lon);
+	}
+
+	@Override
+	public Coordinate getTargetCoordinate() {
+		RoutePoint point = targetPoint;
+		if (point == null) {
+			return null;
+		}
+		return new Coordinate(point.Lat, point.Lon);
+	}
+
+	@Override
+	public RoutingState getRoutingState() {
+		return state;
+	}
+
+
+	@Override
+	public List<Coordinate> getCalculatedRoute() {
+		RouteResult result = routeResult;
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result.getRoute();
+	}
+
+	/**
+	 * @return Result of last route calculation or null if no route calculated yet
+	 */
+	public RouteResult getRouteResult() {
+		return routeResult;
+	}
+
+	@Override
+	public void setDisplayRefreshListener(Runnable listener) {
+		displayRefreshListener = listener;
+	}
+
+	/**
+	 * Notifies display about changed start, target, preview or route, may be called from routing thread
+	 */
+	protected void requestDisplayRefresh() {
+		Runnable listener = displayRefreshListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+
+	private synchronized void addNewPreviewDot(Coordinate dot) {
+		routingPreviewDots.add(dot);
+	}
+
+	private synchronized void clearPreviewDots() {
+		routingPreviewDots.clear();
+	}
+
+	@Override
+	public synchronized List<Coordinate> getRoutingPreviewDots() {
+		return new ArrayList<>(routingPreviewDots);
+	}
+
+	@Override
+	public Coordinate getBestCandidateCoords() {
+		Integer candidate = bestCandidateNode;
+		if (candidate == null) {
+			return null;
+		}
+		return getNodeCoordinates(candidate);
+	}
+
+
+
+	@Override
+	public float getTimeOfRoute() {
+		RouteResult result = routeResult;
+		if (result == null || !result.reachesTarget()) {
+			return 0.0f;
+		}
+		return result.getRouteTime();
+	}
+
+
+	/**
+	 * Determines coordinates of a node
+	 *
+	 * @return Coordinates of node
+	 */
+	protected Coordinate getNodeCoordinates(int nodeGridIndex) {
+		return new Coordinate(graph.getNodeLat(nodeGridIndex), graph.getNodeLon(nodeGridIndex));
+	}
+
+
+
+	/**
+	 * Tries to find out index of next point to given coordinate
+	 *
+	 * @param coord
+	 * @return Index of next point
+	 */
+	@Override
+	public Integer findNextNode(float lat, float lon) {
+		int nextIndex = graph.findNextNode(lat, lon);
+		if (nextIndex == -1) {
+			return null;
+		}
+
+		return nextIndex;
+	}
+
+	/**
+	 * Finds closest point on any road to given coordinate
+	 *
+	 * @return Point on road or null if there are no roads
+	 */
+	@Override
+	public RoutePoint snapToRoad(float lat, float lon) {
+		return graph.findNextRoadPoint(lat, lon);
+	}
+}
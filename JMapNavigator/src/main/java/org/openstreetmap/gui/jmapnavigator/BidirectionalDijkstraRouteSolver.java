@@ -0,0 +1,215 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+
+/**
+ * Bidirectional Dijkstra. Searches forward from start and backward from target on the reverse adjacency, always expanding the
+ * direction with the smaller heap minimum. Stops when the sum of both heap minimums reaches the best route found so far.
+ */
+public class BidirectionalDijkstraRouteSolver extends AbstractRouteSolver {
+
+	/**
+	 * Constructor
+	 */
+	public BidirectionalDijkstraRouteSolver(RoutingService routingService) {
+		super(routingService);
+
+		state = RoutingState.Standby;
+	}
+
+
+	@Override
+	public String getName() {
+		return "Bidirectional Dijkstra";
+	}
+
+
+
+	@Override
+	protected RouteResult doRouting(SearchContext context) {
+		RoutePoint startPoint = context.startPoint;
+		RoutePoint targetPoint = context.targetPoint;
+		for (int i = 0; i < startPoint.getNodeCount(); i++) {
+			addSearchStart(context.forwardHeap, context.forwardTree, startPoint.getNode(i), startPoint.getStartCost(i));
+		}
+		for (int i = 0; i < targetPoint.getNodeCount(); i++) {
+			addSearchStart(context.backwardHeap, context.backwardTree, targetPoint.getNode(i), targetPoint.getTargetCost(i));
+		}
+
+		// Start and target can be on the same road or share nodes
+		context.bestRouteDist = RoutePoint.calcDirectDist(startPoint, targetPoint);
+		context.meetingNode = -1;
+		for (int i = 0; i < startPoint.getNodeCount(); i++) {
+			int startNodeIndex = startPoint.getNode(i);
+			checkMeeting(context, startNodeIndex, context.forwardTree.getDist(startNodeIndex), context.backwardTree);
+		}
+
+		while (true) {
+			float forwardMin = context.forwardHeap.isEmpty() ? Float.POSITIVE_INFINITY : context.forwardHeap.peekNodeValue();
+			float backwardMin = context.backwardHeap.isEmpty() ? Float.POSITIVE_INFINITY : context.backwardHeap.peekNodeValue();
+			if (isSearchFinished(context, forwardMin, backwardMin) || context.shouldStop()) {
+				break;
+			}
+
+			if (forwardMin <= backwardMin) {
+				int visNodeIndex = context.forwardHeap.removeFirst();
+				context.forwardTree.settle(visNodeIndex);
+				context.listener.nodeSettled(visNodeIndex);
+				expandForward(context, visNodeIndex);
+			}
+			else {
+				int visNodeIndex = context.backwardHeap.removeFirst();
+				context.backwardTree.settle(visNodeIndex);
+				context.listener.nodeSettled(visNodeIndex);
+				expandBackward(context, visNodeIndex);
+			}
+		}
+
+		if (context.meetingNode != -1) {
+			return createBidirectionalResult(context);
+		}
+		else if (context.stopReason != null && context.bestRouteDist == Float.POSITIVE_INFINITY) {
+			return createCandidateResult(context);
+		}
+		else {
+			// Direct route on road of start and target or no route
+			return createResult(context, -1, context.bestRouteDist);
+		}
+	}
+
+	private static void addSearchStart(INodeQueue heap, SearchTree tree, int nodeIndex, float cost) {
+		if (cost == Float.POSITIVE_INFINITY) {
+			return;
+		}
+		heap.add(nodeIndex, cost);
+		tree.setDist(nodeIndex, -1, cost);
+	}
+
+
+	/**
+	 * Meeting criterion: No better route can be found anymore
+	 *
+	 * @param forwardMin
+	 *            Minimum of forward heap, infinite if empty
+	 * @param backwardMin
+	 *            Minimum of backward heap, infinite if empty
+	 */
+	protected boolean isSearchFinished(SearchContext context, float forwardMin, float backwardMin) {
+		return forwardMin + backwardMin >= context.bestRouteDist;
+	}
+
+
+	/**
+	 * Relaxes outgoing edges of a node settled by forward search
+	 */
+	protected void expandForward(SearchContext context, int visNodeIndex) {
+		float visNodeDist = context.forwardTree.getDist(visNodeIndex);
+		RouteGraph.EdgeCursor edges = context.forwardEdges;
+		edges.reset(visNodeIndex);
+		while (edges.next()) {
+			int edgeNodeIndex = edges.getTarget();
+			if (context.forwardTree.isSettled(edgeNodeIndex)) continue;
+
+			float dist = visNodeDist + edges.getDist();
+			relaxEdge(context.forwardHeap, context.forwardTree, visNodeIndex, edgeNodeIndex, dist);
+			checkMeeting(context, edgeNodeIndex, dist, context.backwardTree);
+		}
+	}
+
+	/**
+	 * Relaxes incoming edges of a node settled by backward search
+	 */
+	protected void expandBackward(SearchContext context, int visNodeIndex) {
+		float visNodeDist = context.backwardTree.getDist(visNodeIndex);
+		RouteGraph.EdgeCursor edges = context.backwardEdges;
+		edges.reset(visNodeIndex);
+		while (edges.next()) {
+			int edgeNodeIndex = edges.getTarget();
+			if (context.backwardTree.isSettled(edgeNodeIndex)) continue;
+
+			float dist = visNodeDist + edges.getDist();
+			relaxEdge(context.backwardHeap, context.backwardTree, visNodeIndex, edgeNodeIndex, dist);
+			checkMeeting(context, edgeNodeIndex, dist, context.forwardTree);
+		}
+	}
+
+	protected void relaxEdge(INodeQueue heap, SearchTree tree, int visNodeIndex, int edgeNodeIndex, float dist) {
+		if (tree.isDiscovered(edgeNodeIndex)) {
+			// Already discovered
+			if (heap.decreaseKeyIfSmaller(edgeNodeIndex, dist)) {
+				tree.setDist(edgeNodeIndex, visNodeIndex, dist);
+			}
+		}
+		else {
+			// Not discovered yet
+			heap.add(edgeNodeIndex, dist);
+			tree.setDist(edgeNodeIndex, visNodeIndex, dist);
+		}
+	}
+
+	/**
+	 * Updates best route if node was reached by other search direction
+	 */
+	protected void checkMeeting(SearchContext context, int nodeIndex, float dist, SearchTree otherTree) {
+		float otherDist = otherTree.getDist(nodeIndex);
+		if (dist + otherDist < context.bestRouteDist) {
+			context.bestRouteDist = dist + otherDist;
+			context.meetingNode = nodeIndex;
+		}
+	}
+
+
+	/**
+	 * Appends the nodes of a search edge after from up to and including to
+	 */
+	protected void appendRouteEdge(int from, int to, IntArrayList routeNodes) {
+		routeNodes.add(to);
+	}
+
+
+	/**
+	 * Partial route of forward search to best candidate node
+	 */
+	private RouteResult createCandidateResult(SearchContext context) {
+		int candidate = findBestCandidate(context);
+		IntArrayList forwardPath = context.forwardTree.collectPath(candidate);
+		IntArrayList routeNodes = new IntArrayList();
+		if (!forwardPath.isEmpty()) {
+			routeNodes.add(forwardPath.getInt(forwardPath.size() - 1));
+			for (int i = forwardPath.size() - 1; i > 0; i--) {
+				appendRouteEdge(forwardPath.getInt(i), forwardPath.getInt(i - 1), routeNodes);
+			}
+		}
+
+		IntArrays.reverse(routeNodes.elements(), 0, routeNodes.size());
+		return createPartialResult(context, routeNodes, (candidate != -1) ? context.forwardTree.getDist(candidate) : 0.0f);
+	}
+
+	/**
+	 * Joins forward path and backward path at meeting node. Route ordered from target to start, like createResult.
+	 */
+	private RouteResult createBidirectionalResult(SearchContext context) {
+		// Forward search path start->meeting node, collected backwards
+		IntArrayList forwardPath = context.forwardTree.collectPath(context.meetingNode);
+
+		// Path starts at the start node the search reached the meeting node from
+		IntArrayList routeNodes = new IntArrayList();
+		routeNodes.add(forwardPath.getInt(forwardPath.size() - 1));
+		for (int i = forwardPath.size() - 1; i > 0; i--) {
+			appendRouteEdge(forwardPath.getInt(i), forwardPath.getInt(i - 1), routeNodes);
+		}
+
+		// Backward search path meeting node->target
+		int node = context.meetingNode;
+		while (context.backwardTree.getPred(node) != -1) {
+			int pred = context.backwardTree.getPred(node);
+			appendRouteEdge(node, pred, routeNodes);
+			node = pred;
+		}
+
+		IntArrays.reverse(routeNodes.elements(), 0, routeNodes.size());
+		return createResult(context, routeNodes, context.bestRouteDist);
+	}
+}
@@ -0,0 +1,321 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+
+/**
+ * Simplifies a graph by removing shape points: Nodes on a road without junction, with one edge in and one edge out or with two
+ * way edges to exactly two neighbours. Each chain of such nodes between two remaining nodes is replaced by one edge with the
+ * summed route time, the removed nodes are kept as shape points in an {@link EdgeGeometry}. Route times between remaining nodes
+ * do not change, routes are drawn with all shape points.
+ * <p>
+ * Chains are only collapsed if no other edge connects the same two nodes, so an edge between two nodes is always the same road
+ * as {@link RoutePoint} assumes. Otherwise a node in the middle of the chain is kept, until no such conflicts are left.
+ * <p>
+ * Compressed graphs are stored as {@link MappedGraphFile} with shape points and mapped on later starts.
+ */
+@SuppressWarnings("javadoc")
+public class ChainCompression {
+
+	// Changes checksums of compressed graphs if compression changes
+	private static final int COMPRESSION_VERSION = 1;
+	private static final int NO_OWNER = Integer.MIN_VALUE;
+
+
+	private final RouteGraph graph;
+	// Nodes which are not removed
+	private final boolean[] kept;
+	private final boolean[] visited;
+	// Chain of last walk
+	private final IntArrayList chainNodes = new IntArrayList();
+	private int chainEnd;
+	private float chainDist;
+
+
+
+	private ChainCompression(RouteGraph graph) {
+		this.graph = graph;
+		this.kept = new boolean[graph.getNodeCount()];
+		this.visited = new boolean[graph.getNodeCount()];
+	}
+
+
+	/**
+	 * Opens compressed graph from mapped graph file if it was compressed from this graph, otherwise compresses graph and writes
+	 * the file
+	 *
+	 * @return Compressed graph, mapped from file if possible
+	 */
+	public static RouteGraph loadOrCompress(RouteGraph graph, File mappedFile) {
+		long checksum = calcChecksum(graph);
+		if (mappedFile.exists()) {
+			try {
+				RouteGraph compressed = MappedGraphFile.open(mappedFile);
+				if (compressed.getChecksum() == checksum) {
+					return compressed;
+				}
+				System.out.println("Compressed graph file is outdated, compressing graph again");
+			}
+			catch (IOException e) {
+				System.err.println("Failed to open compressed graph file, compressing graph again: " + e);
+			}
+		}
+
+		RouteGraph compressed = compress(graph);
+		try {
+			MappedGraphFile.write(compressed, mappedFile);
+			return MappedGraphFile.open(mappedFile);
+		}
+		catch (IOException e) {
+			System.err.println("Failed to write compressed graph file " + mappedFile);
+			e.printStackTrace();
+		}
+		return compressed;
+	}
+
+	/**
+	 * @return Checksum of compressed graph of given graph
+	 */
+	private static long calcChecksum(RouteGraph graph) {
+		return RouteGraph.deriveChecksum(graph.getChecksum(), "chains" + COMPRESSION_VERSION);
+	}
+
+	/**
+	 * @return Graph without chain nodes, node IDs of remaining nodes are kept
+	 */
+	public static RouteGraph compress(RouteGraph graph) {
+		System.out.println("Start compressing graph chains");
+		long startTime = System.currentTimeMillis();
+
+		ChainCompression compression = new ChainCompression(graph);
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			compression.kept[node] = !compression.isChainNode(node);
+		}
+		int rounds = 1;
+		while (compression.keepConflictingChainNodes() > 0) {
+			rounds++;
+		}
+		RouteGraph compressed = compression.buildGraph();
+
+		System.out.println("Finished compressing graph chains after " + (System.currentTimeMillis() - startTime) + "ms and "
+				+ rounds + " rounds: " + compressed.getNodeCount() + " of " + graph.getNodeCount() + " nodes, "
+				+ compressed.getEdgeCount() + " of " + graph.getEdgeCount() + " edges");
+		return compressed;
+	}
+
+
+	/**
+	 * @return True if node only connects two other nodes, one way or two way
+	 */
+	private boolean isChainNode(int node) {
+		int outStart = graph.getEdgesStart(node);
+		int outCount = graph.getEdgesEnd(node) - outStart;
+		int inStart = graph.getReverseEdgesStart(node);
+		int inCount = graph.getReverseEdgesEnd(node) - inStart;
+
+		if (outCount == 1 && inCount == 1) {
+			int from = graph.getReverseEdgeSource(inStart);
+			int to = graph.getEdgeTarget(outStart);
+			return from != to && from != node && to != node;
+		}
+		if (outCount == 2 && inCount == 2) {
+			int to1 = graph.getEdgeTarget(outStart);
+			int to2 = graph.getEdgeTarget(outStart + 1);
+			int from1 = graph.getReverseEdgeSource(inStart);
+			int from2 = graph.getReverseEdgeSource(inStart + 1);
+			return to1 != to2 && to1 != node && to2 != node
+					&& ((from1 == to1 && from2 == to2) || (from1 == to2 && from2 == to1));
+		}
+		return false;
+	}
+
+	/**
+	 * Follows chain starting with edge of source until a kept node, sets chainNodes, chainEnd and chainDist
+	 */
+	private void walkChain(int source, int edge) {
+		chainNodes.clear();
+		chainDist = graph.getEdgeDist(edge);
+		int prev = source;
+		int node = graph.getEdgeTarget(edge);
+		while (!kept[node]) {
+			chainNodes.add(node);
+			// Continue on edge not leading back, the only edge of one way chains
+			int next = graph.getEdgesStart(node);
+			if (graph.getEdgesEnd(node) - next == 2 && graph.getEdgeTarget(next) == prev) {
+				next++;
+			}
+			chainDist += graph.getEdgeDist(next);
+			prev = node;
+			node = graph.getEdgeTarget(next);
+		}
+		chainEnd = node;
+	}
+
+
+	/**
+	 * Walks all chains. Keeps a middle node of chains which would become loops or parallel to another edge and one node of each
+	 * cycle without kept node.
+	 *
+	 * @return Number of nodes kept additionally
+	 */
+	private int keepConflictingChainNodes() {
+		int nodeCount = graph.getNodeCount();
+		int conflicts = 0;
+		Arrays.fill(visited, false);
+
+		// Owner of each node pair: First node of chain connecting it, -1 for direct edges
+		Long2IntMap pairOwners = new Long2IntOpenHashMap();
+		pairOwners.defaultReturnValue(NO_OWNER);
+		for (int node = 0; node < nodeCount; node++) {
+			if (!kept[node]) continue;
+			for (int iEdge = graph.getEdgesStart(node); iEdge < graph.getEdgesEnd(node); iEdge++) {
+				int target = graph.getEdgeTarget(iEdge);
+				if (kept[target] && target != node) {
+					pairOwners.put(getPairKey(node, target), -1);
+				}
+			}
+		}
+
+		for (int node = 0; node < nodeCount; node++) {
+			if (kept[node]) {
+				conflicts += walkChainsFrom(node, pairOwners);
+			}
+		}
+		// Cycles of chain nodes are not reachable from kept nodes
+		for (int node = 0; node < nodeCount; node++) {
+			if (!kept[node] && !visited[node]) {
+				kept[node] = true;
+				conflicts++;
+				walkChainsFrom(node, pairOwners);
+			}
+		}
+		return conflicts;
+	}
+
+	private int walkChainsFrom(int node, Long2IntMap pairOwners) {
+		int conflicts = 0;
+		for (int iEdge = graph.getEdgesStart(node); iEdge < graph.getEdgesEnd(node); iEdge++) {
+			if (kept[graph.getEdgeTarget(iEdge)]) continue;
+
+			walkChain(node, iEdge);
+			int owner = Integer.MAX_VALUE;
+			for (int i = 0; i < chainNodes.size(); i++) {
+				visited[chainNodes.getInt(i)] = true;
+				owner = Math.min(owner, chainNodes.getInt(i));
+			}
+
+			long pairKey = getPairKey(node, chainEnd);
+			int pairOwner = pairOwners.get(pairKey);
+			if (chainEnd == node || (pairOwner != NO_OWNER && pairOwner != owner)) {
+				kept[chainNodes.getInt(chainNodes.size() / 2)] = true;
+				conflicts++;
+			}
+			else {
+				pairOwners.put(pairKey, owner);
+			}
+		}
+		return conflicts;
+	}
+
+	private static long getPairKey(int node1, int node2) {
+		return ((long) Math.min(node1, node2) << 32) | Math.max(node1, node2);
+	}
+
+
+	/**
+	 * Builds graph of kept nodes with one edge per chain
+	 */
+	private RouteGraph buildGraph() {
+		int nodeCount = graph.getNodeCount();
+		int[] newIndices = new int[nodeCount];
+		int newNodeCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			newIndices[node] = kept[node] ? newNodeCount++ : -1;
+		}
+
+		int[] nodeIds = new int[newNodeCount];
+		float[] nodesLat = new float[newNodeCount];
+		float[] nodesLon = new float[newNodeCount];
+		int[] edgeOffsets = new int[newNodeCount + 1];
+		IntArrayList edgeTargets = new IntArrayList();
+		FloatArrayList edgeDists = new FloatArrayList();
+		IntArrayList pointOffsets = new IntArrayList();
+		FloatArrayList pointsLat = new FloatArrayList();
+		FloatArrayList pointsLon = new FloatArrayList();
+		FloatArrayList pointFractions = new FloatArrayList();
+
+		for (int node = 0; node < nodeCount; node++) {
+			if (!kept[node]) continue;
+			int newNode = newIndices[node];
+			nodeIds[newNode] = graph.getNodeId(node);
+			nodesLat[newNode] = graph.getNodeLat(node);
+			nodesLon[newNode] = graph.getNodeLon(node);
+			edgeOffsets[newNode] = edgeTargets.size();
+
+			for (int iEdge = graph.getEdgesStart(node); iEdge < graph.getEdgesEnd(node); iEdge++) {
+				walkChain(node, iEdge);
+				edgeTargets.add(newIndices[chainEnd]);
+				edgeDists.add(chainDist);
+				pointOffsets.add(pointsLat.size());
+
+				// Shape points with route time fraction from edge source
+				float dist = 0.0f;
+				int prev = node;
+				for (int i = 0; i < chainNodes.size(); i++) {
+					int chainNode = chainNodes.getInt(i);
+					dist += graph.getEdgeDist(graph.findEdge(prev, chainNode));
+					pointsLat.add(graph.getNodeLat(chainNode));
+					pointsLon.add(graph.getNodeLon(chainNode));
+					pointFractions.add((chainDist > 0.0f) ? dist / chainDist : (float) (i + 1) / (chainNodes.size() + 1));
+					prev = chainNode;
+				}
+			}
+		}
+		edgeOffsets[newNodeCount] = edgeTargets.size();
+		pointOffsets.add(pointsLat.size());
+
+		EdgeGeometry geometry = new EdgeGeometry(pointOffsets.toIntArray(), pointsLat.toFloatArray(), pointsLon.toFloatArray(),
+				pointFractions.toFloatArray());
+		long checksum = calcChecksum(graph);
+		return new RouteGraph(checksum, nodeIds, nodesLat, nodesLon, edgeOffsets, edgeTargets.toIntArray(),
+				edgeDists.toFloatArray(), geometry);
+	}
+
+
+
+	/**
+	 * Benchmark: Runs the same random queries on the graph with and without chain compression, compares route times, route
+	 * shapes and query times
+	 *
+	 * @param args
+	 *            [queries]
+	 */
+	public static void main(String[] args) throws Exception {
+		int queryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+
+		RouteBenchmark.run(createBenchmarkVariants(),
+				MappedGraphFile.loadOrConvert(RouteGraph.GRAPH_FILE, RouteGraph.MAPPED_GRAPH_FILE), queryCount,
+				RouteBenchmark.ROUTE_TIME_TOLERANCE);
+	}
+
+	/**
+	 * @return Bidirectional Dijkstra on graph without and with chain compression
+	 */
+	static RouteBenchmark.VariantFactory createBenchmarkVariants() {
+		return new RouteBenchmark.VariantFactory() {
+
+			@Override
+			public RouteBenchmark.Variant[] createVariants(RouteGraph graph) {
+				return new RouteBenchmark.Variant[] { new RouteBenchmark.BidirectionalVariant("Original graph", graph),
+						new RouteBenchmark.BidirectionalVariant("Chain compressed graph", compress(graph)) };
+			}
+		};
+	}
+}
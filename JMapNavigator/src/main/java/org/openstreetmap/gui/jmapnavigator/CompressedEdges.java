@@ -0,0 +1,373 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Compressed adjacency of a {@link RouteGraph}, forward or reverse. The edges of node i are stored in a byte buffer from
+ * nodeOffsets[i] to nodeOffsets[i+1]. Each edge is the zig-zag varint of the difference between target and source index,
+ * followed by the route time quantized to 16 bits with a per-graph scale. After {@link HilbertNodeOrder} most differences fit
+ * into one or two bytes, so edges take about 3-4 bytes instead of 8.
+ * <p>
+ * The scale is chosen so that nearly all edges fit into 16 bits, longer edges are stored as escape value and full float. Route
+ * times are rounded to the nearest multiple of the scale. Edges are read with a {@link Cursor}, which allocates nothing. A
+ * {@link RouteGraph} uses compressed edges instead of its edge arrays after {@link RouteGraph#compressEdges()}.
+ */
+@SuppressWarnings("javadoc")
+public class CompressedEdges {
+
+	// Changes checksums of graphs with compressed edges if the encoding changes
+	static final int QUANTIZATION_VERSION = 1;
+
+	// Route time value followed by full float
+	private static final int ESCAPE_VALUE = 0xFFFF;
+	private static final int MAX_QUANTIZED = ESCAPE_VALUE - 1;
+	// Part of edges which must fit into 16 bits when choosing the scale
+	private static final double SCALE_QUANTILE = 0.999;
+
+	private final IntBuffer nodeOffsets;
+	private final ByteBuffer data;
+	// Route time of one quantization step in seconds
+	private final float scale;
+	private final int edgeCount;
+
+
+	/**
+	 * Reads edges of one node after another, reusable for any number of nodes
+	 */
+	public final class Cursor {
+
+		private int source;
+		private int position;
+		private int end;
+		private int target;
+		private float dist;
+
+		/**
+		 * Starts reading edges of node
+		 */
+		public void reset(int nodeIndex) {
+			source = nodeIndex;
+			position = nodeOffsets.get(nodeIndex);
+			end = nodeOffsets.get(nodeIndex + 1);
+		}
+
+		/**
+		 * Moves to next edge
+		 *
+		 * @return False if node has no more edges
+		 */
+		public boolean next() {
+			if (position >= end) {
+				return false;
+			}
+
+			// Zig-zag varint of target - source
+			int value = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = data.get(position++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			target = source + ((value >>> 1) ^ -(value & 1));
+
+			int quantized = (data.get(position) & 0xFF) | ((data.get(position + 1) & 0xFF) << 8);
+			position += 2;
+			if (quantized == ESCAPE_VALUE) {
+				dist = Float.intBitsToFloat(readInt(position));
+				position += 4;
+			}
+			else {
+				dist = quantized * scale;
+			}
+			return true;
+		}
+
+		/**
+		 * @return Target of current edge, source for reverse edges
+		 */
+		public int getTarget() {
+			return target;
+		}
+
+		/**
+		 * @return Quantized route time of current edge
+		 */
+		public float getDist() {
+			return dist;
+		}
+	}
+
+
+
+	private CompressedEdges(IntBuffer nodeOffsets, ByteBuffer data, float scale, int edgeCount) {
+		this.nodeOffsets = nodeOffsets;
+		this.data = data;
+		this.scale = scale;
+		this.edgeCount = edgeCount;
+	}
+
+
+	/**
+	 * Compresses forward or reverse edges of graph. Both directions get the same scale, as they have the same route times.
+	 *
+	 * @param backward
+	 *            Compress reverse edges, cursor targets are edge sources
+	 */
+	public static CompressedEdges build(RouteGraph graph, boolean backward) {
+		int nodeCount = graph.getNodeCount();
+		int edgeCount = graph.getEdgeCount();
+		float scale = chooseScale(graph, backward);
+
+		int[] nodeOffsets = new int[nodeCount + 1];
+		byte[] data = new byte[Math.max(16, edgeCount * 4)];
+		int position = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			nodeOffsets[node] = position;
+			int edgesStart = backward ? graph.getReverseEdgesStart(node) : graph.getEdgesStart(node);
+			int edgesEnd = backward ? graph.getReverseEdgesEnd(node) : graph.getEdgesEnd(node);
+			for (int iEdge = edgesStart; iEdge < edgesEnd; iEdge++) {
+				// Varint, 2 bytes route time and escaped float at most
+				if (position + 5 + 2 + 4 > data.length) {
+					long newLength = Math.min(Integer.MAX_VALUE - 8, (long) data.length * 3 / 2 + 16);
+					if (newLength < position + 11) {
+						throw new IllegalStateException("Compressed edges exceed 2GB");
+					}
+					data = Arrays.copyOf(data, (int) newLength);
+				}
+
+				int target = backward ? graph.getReverseEdgeSource(iEdge) : graph.getEdgeTarget(iEdge);
+				int delta = target - node;
+				int value = (delta << 1) ^ (delta >> 31);
+				while ((value & ~0x7F) != 0) {
+					data[position++] = (byte) ((value & 0x7F) | 0x80);
+					value >>>= 7;
+				}
+				data[position++] = (byte) value;
+
+				float dist = backward ? graph.getReverseEdgeDist(iEdge) : graph.getEdgeDist(iEdge);
+				long quantized = Math.round(dist / scale);
+				if (quantized >= 0 && quantized <= MAX_QUANTIZED) {
+					data[position++] = (byte) quantized;
+					data[position++] = (byte) (quantized >>> 8);
+				}
+				else {
+					data[position++] = (byte) ESCAPE_VALUE;
+					data[position++] = (byte) (ESCAPE_VALUE >>> 8);
+					int bits = Float.floatToRawIntBits(dist);
+					for (int i = 0; i < 4; i++) {
+						data[position++] = (byte) (bits >>> (8 * i));
+					}
+				}
+			}
+		}
+		nodeOffsets[nodeCount] = position;
+
+		return new CompressedEdges(IntBuffer.wrap(nodeOffsets), ByteBuffer.wrap(Arrays.copyOf(data, position)), scale, edgeCount);
+	}
+
+	/**
+	 * @return Scale at which SCALE_QUANTILE of the edges fit into 16 bits
+	 */
+	private static float chooseScale(RouteGraph graph, boolean backward) {
+		int edgeCount = graph.getEdgeCount();
+		if (edgeCount == 0) {
+			return 1.0f;
+		}
+		float[] dists = new float[edgeCount];
+		for (int i = 0; i < edgeCount; i++) {
+			dists[i] = backward ? graph.getReverseEdgeDist(i) : graph.getEdgeDist(i);
+		}
+		Arrays.sort(dists);
+		float quantileDist = dists[(int) Math.min(edgeCount - 1, (long) (edgeCount * SCALE_QUANTILE))];
+		return (quantileDist > 0.0f) ? quantileDist / MAX_QUANTIZED : 1.0f;
+	}
+
+
+	/**
+	 * Copies edges to direct buffers outside of the Java heap
+	 *
+	 * @return Edges in direct buffers, these edges if they are off heap already
+	 */
+	public CompressedEdges copyOffHeap() {
+		if (isOffHeap()) {
+			return this;
+		}
+		ByteBuffer source = data.duplicate();
+		source.rewind();
+		ByteBuffer dataCopy = ByteBuffer.allocateDirect(source.limit());
+		dataCopy.put(source);
+		dataCopy.rewind();
+		return new CompressedEdges(RouteGraph.copyToDirect(nodeOffsets), dataCopy, scale, edgeCount);
+	}
+
+	public boolean isOffHeap() {
+		return nodeOffsets.isDirect() && data.isDirect();
+	}
+
+
+	/**
+	 * Decodes target of one edge by skipping the edges before it, slower than a cursor
+	 *
+	 * @param index
+	 *            Index of edge among the edges of node
+	 * @return Target of edge, source for reverse edges
+	 */
+	public int getTarget(int node, int index) {
+		int position = skipEdges(node, index);
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = data.get(position++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return node + ((value >>> 1) ^ -(value & 1));
+	}
+
+	/**
+	 * Decodes quantized route time of one edge by skipping the edges before it, slower than a cursor
+	 *
+	 * @param index
+	 *            Index of edge among the edges of node
+	 */
+	public float getDist(int node, int index) {
+		return readDist(skipVarint(skipEdges(node, index)));
+	}
+
+	/**
+	 * @return Position of edge with index among the edges of node
+	 */
+	private int skipEdges(int node, int index) {
+		int position = nodeOffsets.get(node);
+		for (int i = 0; i < index; i++) {
+			position = skipVarint(position);
+			position += getDistSize(position);
+		}
+		return position;
+	}
+
+	private int skipVarint(int position) {
+		while ((data.get(position++) & 0x80) != 0) {
+			// Continuation bit set
+		}
+		return position;
+	}
+
+	private float readDist(int position) {
+		int quantized = (data.get(position) & 0xFF) | ((data.get(position + 1) & 0xFF) << 8);
+		if (quantized == ESCAPE_VALUE) {
+			return Float.intBitsToFloat(readInt(position + 2));
+		}
+		return quantized * scale;
+	}
+
+	/**
+	 * @return Bytes of route time at position, 2 or 6 if escaped
+	 */
+	private int getDistSize(int position) {
+		int quantized = (data.get(position) & 0xFF) | ((data.get(position + 1) & 0xFF) << 8);
+		return (quantized == ESCAPE_VALUE) ? 6 : 2;
+	}
+
+	private int readInt(int position) {
+		return (data.get(position) & 0xFF) | ((data.get(position + 1) & 0xFF) << 8) | ((data.get(position + 2) & 0xFF) << 16)
+				| ((data.get(position + 3) & 0xFF) << 24);
+	}
+
+
+	/**
+	 * @return New cursor, should be reused for all nodes of a search
+	 */
+	public Cursor createCursor() {
+		return new Cursor();
+	}
+
+	public int getNodeCount() {
+		return nodeOffsets.limit() - 1;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * @return Route time of one quantization step in seconds, maximum rounding error is half of it
+	 */
+	public float getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return Size of node offsets and edge data in bytes
+	 */
+	public long getSizeBytes() {
+		return 4L * nodeOffsets.limit() + data.limit();
+	}
+
+
+
+	/**
+	 * Compresses graph, checks decoded edges and compares size, query times and route times with the uncompressed graph
+	 *
+	 * @param args
+	 *            [queries]
+	 */
+	public static void main(String[] args) throws Exception {
+		int queryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+
+		RouteGraph graph = MappedGraphFile.loadOrConvert(RouteGraph.GRAPH_FILE, RouteGraph.MAPPED_GRAPH_FILE);
+		long startTime = System.currentTimeMillis();
+		CompressedEdges edges = build(graph, false);
+		System.out.println("Compressed " + edges.getEdgeCount() + " edges after " + (System.currentTimeMillis() - startTime)
+				+ "ms, scale " + edges.getScale() + "s");
+
+		// Check targets and rounding of all edges
+		Cursor cursor = edges.createCursor();
+		int badEdges = 0;
+		float maxError = 0.0f;
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			cursor.reset(node);
+			for (int iEdge = graph.getEdgesStart(node); iEdge < graph.getEdgesEnd(node); iEdge++) {
+				if (!cursor.next() || cursor.getTarget() != graph.getEdgeTarget(iEdge)) {
+					badEdges++;
+					continue;
+				}
+				maxError = Math.max(maxError, Math.abs(cursor.getDist() - graph.getEdgeDist(iEdge)));
+			}
+			if (cursor.next()) {
+				badEdges++;
+			}
+		}
+
+		long csrBytes = 4L * (graph.getNodeCount() + 1) + 8L * graph.getEdgeCount();
+		System.out.println(String.format("Size %d bytes (%.2f per edge), uncompressed %d bytes (%.2f per edge)",
+				edges.getSizeBytes(), (double) edges.getSizeBytes() / Math.max(1, edges.getEdgeCount()), csrBytes,
+				(double) csrBytes / Math.max(1, graph.getEdgeCount())));
+		System.out.println("Bad edges: " + badEdges + ", max route time error per edge: " + maxError + "s");
+
+		RouteBenchmark.run(createBenchmarkVariants(), graph, queryCount, RouteBenchmark.ROUTE_TIME_TOLERANCE);
+	}
+
+	/**
+	 * @return Dijkstra on graph with edge buffers, Dijkstra, A* and bidirectional Dijkstra on compressed edges
+	 */
+	static RouteBenchmark.VariantFactory createBenchmarkVariants() {
+		return new RouteBenchmark.VariantFactory() {
+
+			@Override
+			public RouteBenchmark.Variant[] createVariants(RouteGraph graph) {
+				RouteGraph compressedGraph = graph.compressEdges();
+				return new RouteBenchmark.Variant[] { new RouteBenchmark.DijkstraVariant("Edge buffers, Dijkstra", graph),
+						new RouteBenchmark.DijkstraVariant("Compressed edges, Dijkstra", compressedGraph),
+						new RouteBenchmark.AStarVariant("Compressed edges, A*", compressedGraph),
+						new RouteBenchmark.BidirectionalVariant("Compressed edges, bidirectional Dijkstra", compressedGraph) };
+			}
+		};
+	}
+}
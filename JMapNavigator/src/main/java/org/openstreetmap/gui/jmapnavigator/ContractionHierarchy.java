@@ -0,0 +1,575 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.openstreetmap.gui.jmapnavigator.GraphArtifactStore.ArtifactBuilder;
+import org.openstreetmap.gui.jmapnavigator.GraphArtifactStore.ArtifactCodec;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Contraction hierarchy of a {@link RouteGraph}. Nodes are contracted in order of their priority (twice the edge difference plus
+ * number of already contracted neighbors), shortcuts are added where a witness search finds no path avoiding the contracted node.
+ * <p>
+ * The result are two graphs in CSR format: The upward graph holds all edges from a node to higher ranked nodes, the downward
+ * graph holds all edges from higher ranked nodes into a node, stored at the lower ranked node to be searched backward. Each edge
+ * stores the middle node of the shortcut it represents or -1 for an original edge.
+ */
+@SuppressWarnings("javadoc")
+public class ContractionHierarchy {
+
+	public static final String ARTIFACT_NAME = "contraction_hierarchy";
+	public static final int ARTIFACT_VERSION = 1;
+
+	/**
+	 * Codec to store hierarchy in a {@link GraphArtifactStore}
+	 */
+	public static final ArtifactCodec<ContractionHierarchy> ARTIFACT_CODEC = new ArtifactCodec<ContractionHierarchy>() {
+
+		@Override
+		public void write(ContractionHierarchy hierarchy, DataOutputStream out) throws IOException {
+			GraphArtifactStore.writeIntArray(hierarchy.nodeRanks, out);
+			GraphArtifactStore.writeIntArray(hierarchy.upEdgeOffsets, out);
+			GraphArtifactStore.writeIntArray(hierarchy.upEdgeTargets, out);
+			GraphArtifactStore.writeFloatArray(hierarchy.upEdgeDists, out);
+			GraphArtifactStore.writeIntArray(hierarchy.upEdgeMiddles, out);
+			GraphArtifactStore.writeIntArray(hierarchy.downEdgeOffsets, out);
+			GraphArtifactStore.writeIntArray(hierarchy.downEdgeSources, out);
+			GraphArtifactStore.writeFloatArray(hierarchy.downEdgeDists, out);
+			GraphArtifactStore.writeIntArray(hierarchy.downEdgeMiddles, out);
+		}
+
+		@Override
+		public ContractionHierarchy read(DataInputStream in) throws IOException {
+			return new ContractionHierarchy(GraphArtifactStore.readIntArray(in), GraphArtifactStore.readIntArray(in),
+					GraphArtifactStore.readIntArray(in), GraphArtifactStore.readFloatArray(in), GraphArtifactStore.readIntArray(in),
+					GraphArtifactStore.readIntArray(in), GraphArtifactStore.readIntArray(in), GraphArtifactStore.readFloatArray(in),
+					GraphArtifactStore.readIntArray(in));
+		}
+	};
+
+	/**
+	 * Builder to create hierarchy for a {@link GraphArtifactStore}
+	 */
+	public static final ArtifactBuilder<ContractionHierarchy> ARTIFACT_BUILDER = new ArtifactBuilder<ContractionHierarchy>() {
+
+		@Override
+		public ContractionHierarchy build(RouteGraph graph) {
+			return ContractionHierarchy.build(graph);
+		}
+	};
+
+	// Witness search limits, for priority simulation and contraction
+	private static final int WITNESS_SETTLED_LIMIT_SIMULATE = 100;
+	private static final int WITNESS_SETTLED_LIMIT_CONTRACT = 1000;
+
+	private final int nodeCount;
+	private final int[] nodeRanks;
+
+	private final int[] upEdgeOffsets;
+	private final int[] upEdgeTargets;
+	private final float[] upEdgeDists;
+	private final int[] upEdgeMiddles;
+
+	private final int[] downEdgeOffsets;
+	private final int[] downEdgeSources;
+	private final float[] downEdgeDists;
+	private final int[] downEdgeMiddles;
+
+
+	public ContractionHierarchy(int[] nodeRanks, int[] upEdgeOffsets, int[] upEdgeTargets, float[] upEdgeDists, int[] upEdgeMiddles,
+			int[] downEdgeOffsets, int[] downEdgeSources, float[] downEdgeDists, int[] downEdgeMiddles) {
+		this.nodeCount = nodeRanks.length;
+		this.nodeRanks = nodeRanks;
+		this.upEdgeOffsets = upEdgeOffsets;
+		this.upEdgeTargets = upEdgeTargets;
+		this.upEdgeDists = upEdgeDists;
+		this.upEdgeMiddles = upEdgeMiddles;
+		this.downEdgeOffsets = downEdgeOffsets;
+		this.downEdgeSources = downEdgeSources;
+		this.downEdgeDists = downEdgeDists;
+		this.downEdgeMiddles = downEdgeMiddles;
+	}
+
+
+
+	/**
+	 * Contracts all nodes of the graph and builds the hierarchy
+	 */
+	public static ContractionHierarchy build(RouteGraph graph) {
+		return new Builder(graph).build();
+	}
+
+
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getNodeRank(int node) {
+		return nodeRanks[node];
+	}
+
+	public int getUpEdgeCount() {
+		return upEdgeTargets.length;
+	}
+
+	public int getDownEdgeCount() {
+		return downEdgeSources.length;
+	}
+
+	public int getUpEdgesStart(int node) {
+		return upEdgeOffsets[node];
+	}
+
+	public int getUpEdgesEnd(int node) {
+		return upEdgeOffsets[node + 1];
+	}
+
+	public int getUpEdgeTarget(int edge) {
+		return upEdgeTargets[edge];
+	}
+
+	public float getUpEdgeDist(int edge) {
+		return upEdgeDists[edge];
+	}
+
+	/**
+	 * @return Middle node of shortcut or -1 if original edge
+	 */
+	public int getUpEdgeMiddle(int edge) {
+		return upEdgeMiddles[edge];
+	}
+
+	public int getDownEdgesStart(int node) {
+		return downEdgeOffsets[node];
+	}
+
+	public int getDownEdgesEnd(int node) {
+		return downEdgeOffsets[node + 1];
+	}
+
+	public int getDownEdgeSource(int edge) {
+		return downEdgeSources[edge];
+	}
+
+	public float getDownEdgeDist(int edge) {
+		return downEdgeDists[edge];
+	}
+
+	/**
+	 * @return Middle node of shortcut or -1 if original edge
+	 */
+	public int getDownEdgeMiddle(int edge) {
+		return downEdgeMiddles[edge];
+	}
+
+
+
+	/**
+	 * Finds the edge from node to a higher ranked node
+	 *
+	 * @return Edge index in upward graph or -1 if not found
+	 */
+	public int findUpEdge(int from, int to) {
+		for (int i = upEdgeOffsets[from]; i < upEdgeOffsets[from + 1]; i++) {
+			if (upEdgeTargets[i] == to) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the edge from a higher ranked node to node
+	 *
+	 * @return Edge index in downward graph or -1 if not found
+	 */
+	public int findDownEdge(int from, int to) {
+		for (int i = downEdgeOffsets[to]; i < downEdgeOffsets[to + 1]; i++) {
+			if (downEdgeSources[i] == from) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Unpacks a hierarchy edge into the original nodes it passes, appends all nodes after from up to and including to.
+	 */
+	public void unpackEdge(int from, int to, IntArrayList nodesOut) {
+		// Stack of edges still to unpack, pushed in reverse order
+		IntArrayList stack = new IntArrayList();
+		stack.add(to);
+		stack.add(from);
+		while (!stack.isEmpty()) {
+			int edgeFrom = stack.popInt();
+			int edgeTo = stack.popInt();
+
+			int middle;
+			if (nodeRanks[edgeFrom] < nodeRanks[edgeTo]) {
+				middle = upEdgeMiddles[findUpEdge(edgeFrom, edgeTo)];
+			}
+			else {
+				middle = downEdgeMiddles[findDownEdge(edgeFrom, edgeTo)];
+			}
+
+			if (middle == -1) {
+				nodesOut.add(edgeTo);
+			}
+			else {
+				// Unpack edgeFrom->middle first, then middle->edgeTo
+				stack.add(edgeTo);
+				stack.add(middle);
+				stack.add(middle);
+				stack.add(edgeFrom);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Performs node ordering and contraction on a dynamic copy of the graph
+	 */
+	private static class Builder {
+
+		private final int nodeCount;
+
+		// Dynamic graph of not yet contracted nodes
+		private final IntArrayList[] outTargets;
+		private final FloatArrayList[] outDists;
+		private final IntArrayList[] outMiddles;
+		private final IntArrayList[] inSources;
+		private final FloatArrayList[] inDists;
+		private final IntArrayList[] inMiddles;
+
+		private final int[] deletedNeighbors;
+		private final int[] nodeRanks;
+
+		// Hierarchy edges, recorded when node is contracted
+		private final IntArrayList[] upTargets;
+		private final FloatArrayList[] upDists;
+		private final IntArrayList[] upMiddles;
+		private final IntArrayList[] downSources;
+		private final FloatArrayList[] downDists;
+		private final IntArrayList[] downMiddles;
+
+		// Witness search buffers
+		private final NodeDistHeap witnessHeap;
+		private final float[] witnessDists;
+		private final IntArrayList witnessTouched = new IntArrayList();
+
+		// Shortcuts found by last contraction or simulation
+		private final IntArrayList shortcutFrom = new IntArrayList();
+		private final IntArrayList shortcutTo = new IntArrayList();
+		private final FloatArrayList shortcutDists = new FloatArrayList();
+
+
+		Builder(RouteGraph graph) {
+			this.nodeCount = graph.getNodeCount();
+
+			outTargets = new IntArrayList[nodeCount];
+			outDists = new FloatArrayList[nodeCount];
+			outMiddles = new IntArrayList[nodeCount];
+			inSources = new IntArrayList[nodeCount];
+			inDists = new FloatArrayList[nodeCount];
+			inMiddles = new IntArrayList[nodeCount];
+			upTargets = new IntArrayList[nodeCount];
+			upDists = new FloatArrayList[nodeCount];
+			upMiddles = new IntArrayList[nodeCount];
+			downSources = new IntArrayList[nodeCount];
+			downDists = new FloatArrayList[nodeCount];
+			downMiddles = new IntArrayList[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				outTargets[i] = new IntArrayList(2);
+				outDists[i] = new FloatArrayList(2);
+				outMiddles[i] = new IntArrayList(2);
+				inSources[i] = new IntArrayList(2);
+				inDists[i] = new FloatArrayList(2);
+				inMiddles[i] = new IntArrayList(2);
+			}
+
+			deletedNeighbors = new int[nodeCount];
+			nodeRanks = new int[nodeCount];
+
+			witnessHeap = new NodeDistHeap(1000, nodeCount);
+			witnessDists = new float[nodeCount];
+			Arrays.fill(witnessDists, Float.POSITIVE_INFINITY);
+
+			RouteGraph.EdgeCursor edges = graph.createEdgeCursor(false);
+			for (int iNode = 0; iNode < nodeCount; iNode++) {
+				edges.reset(iNode);
+				while (edges.next()) {
+					if (edges.getTarget() != iNode) {
+						addOrUpdateEdge(iNode, edges.getTarget(), edges.getDist(), -1);
+					}
+				}
+			}
+		}
+
+
+		ContractionHierarchy build() {
+			System.out.println("Start building contraction hierarchy");
+			long startTime = System.currentTimeMillis();
+
+			// Initial node order
+			NodeDistHeap priorityQueue = new NodeDistHeap(nodeCount, nodeCount);
+			for (int iNode = 0; iNode < nodeCount; iNode++) {
+				priorityQueue.add(iNode, calcPriority(iNode));
+			}
+
+			int rank = 0;
+			int shortcutCount = 0;
+			int progressStep = Math.max(1, nodeCount / 10);
+			while (!priorityQueue.isEmpty()) {
+				int node = priorityQueue.removeFirst();
+
+				// Lazy update: Recalculate priority and postpone node if not minimal anymore
+				float priority = calcPriority(node);
+				if (!priorityQueue.isEmpty() && priority > priorityQueue.peekNodeValue()) {
+					priorityQueue.add(node, priority);
+					continue;
+				}
+
+				shortcutCount += contractNode(node);
+				nodeRanks[node] = rank++;
+
+				if (rank % progressStep == 0) {
+					System.out.println("Contracted " + rank + "/" + nodeCount + " nodes, " + shortcutCount + " shortcuts");
+				}
+			}
+
+			ContractionHierarchy hierarchy = toHierarchy();
+			System.out.println("Finished building contraction hierarchy with " + shortcutCount + " shortcuts after "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+			return hierarchy;
+		}
+
+
+		/**
+		 * Priority of node to contract, lower is contracted earlier
+		 */
+		private float calcPriority(int node) {
+			findShortcuts(node, WITNESS_SETTLED_LIMIT_SIMULATE);
+			int edgeDifference = shortcutFrom.size() - outTargets[node].size() - inSources[node].size();
+			return 2 * edgeDifference + deletedNeighbors[node];
+		}
+
+
+		/**
+		 * Contracts node: Adds shortcuts, records hierarchy edges and removes node from dynamic graph
+		 *
+		 * @return Number of shortcuts added
+		 */
+		private int contractNode(int node) {
+			findShortcuts(node, WITNESS_SETTLED_LIMIT_CONTRACT);
+			int shortcuts = shortcutFrom.size();
+			for (int i = 0; i < shortcuts; i++) {
+				addOrUpdateEdge(shortcutFrom.getInt(i), shortcutTo.getInt(i), shortcutDists.getFloat(i), node);
+			}
+
+			// Remaining edges lead to higher ranked nodes
+			upTargets[node] = outTargets[node];
+			upDists[node] = outDists[node];
+			upMiddles[node] = outMiddles[node];
+			downSources[node] = inSources[node];
+			downDists[node] = inDists[node];
+			downMiddles[node] = inMiddles[node];
+
+			for (int i = 0; i < outTargets[node].size(); i++) {
+				int target = outTargets[node].getInt(i);
+				removeEdge(inSources[target], inDists[target], inMiddles[target], node);
+				deletedNeighbors[target]++;
+			}
+			for (int i = 0; i < inSources[node].size(); i++) {
+				int source = inSources[node].getInt(i);
+				removeEdge(outTargets[source], outDists[source], outMiddles[source], node);
+				deletedNeighbors[source]++;
+			}
+
+			outTargets[node] = null;
+			outDists[node] = null;
+			outMiddles[node] = null;
+			inSources[node] = null;
+			inDists[node] = null;
+			inMiddles[node] = null;
+			return shortcuts;
+		}
+
+
+		/**
+		 * Determines shortcuts necessary to contract node, result in shortcutFrom, shortcutTo and shortcutDists
+		 */
+		private void findShortcuts(int node, int settledLimit) {
+			shortcutFrom.clear();
+			shortcutTo.clear();
+			shortcutDists.clear();
+
+			IntArrayList nodeInSources = inSources[node];
+			IntArrayList nodeOutTargets = outTargets[node];
+			if (nodeInSources.isEmpty() || nodeOutTargets.isEmpty()) {
+				return;
+			}
+
+			float maxOutDist = 0.0f;
+			for (int iOut = 0; iOut < nodeOutTargets.size(); iOut++) {
+				maxOutDist = Math.max(maxOutDist, outDists[node].getFloat(iOut));
+			}
+
+			for (int iIn = 0; iIn < nodeInSources.size(); iIn++) {
+				int source = nodeInSources.getInt(iIn);
+				float inDist = inDists[node].getFloat(iIn);
+
+				witnessSearch(source, node, inDist + maxOutDist, settledLimit);
+
+				for (int iOut = 0; iOut < nodeOutTargets.size(); iOut++) {
+					int target = nodeOutTargets.getInt(iOut);
+					if (target == source) {
+						continue;
+					}
+					float viaDist = inDist + outDists[node].getFloat(iOut);
+					if (witnessDists[target] > viaDist) {
+						shortcutFrom.add(source);
+						shortcutTo.add(target);
+						shortcutDists.add(viaDist);
+					}
+				}
+
+				resetWitnessSearch();
+			}
+		}
+
+
+		/**
+		 * Local Dijkstra from source avoiding ignoredNode, limited by distance and number of settled nodes. Distances in
+		 * witnessDists.
+		 */
+		private void witnessSearch(int source, int ignoredNode, float maxDist, int settledLimit) {
+			witnessHeap.resetEmpty();
+			witnessHeap.add(source, 0.0f);
+			witnessDists[source] = 0.0f;
+			witnessTouched.add(source);
+
+			int settled = 0;
+			while (!witnessHeap.isEmpty() && settled < settledLimit) {
+				if (witnessHeap.peekNodeValue() > maxDist) {
+					break;
+				}
+				int visNode = witnessHeap.removeFirst();
+				settled++;
+				float visDist = witnessDists[visNode];
+
+				IntArrayList targets = outTargets[visNode];
+				for (int i = 0; i < targets.size(); i++) {
+					int target = targets.getInt(i);
+					if (target == ignoredNode) {
+						continue;
+					}
+					float dist = visDist + outDists[visNode].getFloat(i);
+					if (dist < witnessDists[target]) {
+						if (witnessDists[target] == Float.POSITIVE_INFINITY) {
+							witnessTouched.add(target);
+							witnessHeap.add(target, dist);
+						}
+						else {
+							witnessHeap.decreaseKeyIfSmaller(target, dist);
+						}
+						witnessDists[target] = dist;
+					}
+				}
+			}
+		}
+
+		private void resetWitnessSearch() {
+			for (int i = 0; i < witnessTouched.size(); i++) {
+				witnessDists[witnessTouched.getInt(i)] = Float.POSITIVE_INFINITY;
+			}
+			witnessTouched.clear();
+		}
+
+
+		/**
+		 * Adds edge to dynamic graph or replaces existing edge between the nodes if new one is shorter
+		 */
+		private void addOrUpdateEdge(int from, int to, float dist, int middle) {
+			IntArrayList targets = outTargets[from];
+			for (int i = 0; i < targets.size(); i++) {
+				if (targets.getInt(i) == to) {
+					if (dist < outDists[from].getFloat(i)) {
+						outDists[from].set(i, dist);
+						outMiddles[from].set(i, middle);
+						IntArrayList sources = inSources[to];
+						for (int j = 0; j < sources.size(); j++) {
+							if (sources.getInt(j) == from) {
+								inDists[to].set(j, dist);
+								inMiddles[to].set(j, middle);
+								break;
+							}
+						}
+					}
+					return;
+				}
+			}
+
+			outTargets[from].add(to);
+			outDists[from].add(dist);
+			outMiddles[from].add(middle);
+			inSources[to].add(from);
+			inDists[to].add(dist);
+			inMiddles[to].add(middle);
+		}
+
+		private static void removeEdge(IntArrayList nodes, FloatArrayList dists, IntArrayList middles, int node) {
+			for (int i = 0; i < nodes.size(); i++) {
+				if (nodes.getInt(i) == node) {
+					int last = nodes.size() - 1;
+					nodes.set(i, nodes.getInt(last));
+					dists.set(i, dists.getFloat(last));
+					middles.set(i, middles.getInt(last));
+					nodes.removeInt(last);
+					dists.removeFloat(last);
+					middles.removeInt(last);
+					return;
+				}
+			}
+		}
+
+
+		/**
+		 * Converts recorded hierarchy edges to CSR arrays
+		 */
+		private ContractionHierarchy toHierarchy() {
+			int[] upEdgeOffsets = new int[nodeCount + 1];
+			int[] downEdgeOffsets = new int[nodeCount + 1];
+			for (int iNode = 0; iNode < nodeCount; iNode++) {
+				upEdgeOffsets[iNode + 1] = upEdgeOffsets[iNode] + upTargets[iNode].size();
+				downEdgeOffsets[iNode + 1] = downEdgeOffsets[iNode] + downSources[iNode].size();
+			}
+
+			int[] upEdgeTargets = new int[upEdgeOffsets[nodeCount]];
+			float[] upEdgeDists = new float[upEdgeTargets.length];
+			int[] upEdgeMiddles = new int[upEdgeTargets.length];
+			int[] downEdgeSources = new int[downEdgeOffsets[nodeCount]];
+			float[] downEdgeDists = new float[downEdgeSources.length];
+			int[] downEdgeMiddles = new int[downEdgeSources.length];
+			for (int iNode = 0; iNode < nodeCount; iNode++) {
+				upTargets[iNode].getElements(0, upEdgeTargets, upEdgeOffsets[iNode], upTargets[iNode].size());
+				upDists[iNode].getElements(0, upEdgeDists, upEdgeOffsets[iNode], upDists[iNode].size());
+				upMiddles[iNode].getElements(0, upEdgeMiddles, upEdgeOffsets[iNode], upMiddles[iNode].size());
+				downSources[iNode].getElements(0, downEdgeSources, downEdgeOffsets[iNode], downSources[iNode].size());
+				downDists[iNode].getElements(0, downEdgeDists, downEdgeOffsets[iNode], downDists[iNode].size());
+				downMiddles[iNode].getElements(0, downEdgeMiddles, downEdgeOffsets[iNode], downMiddles[iNode].size());
+			}
+
+			return new ContractionHierarchy(nodeRanks, upEdgeOffsets, upEdgeTargets, upEdgeDists, upEdgeMiddles, downEdgeOffsets,
+					downEdgeSources, downEdgeDists, downEdgeMiddles);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import org.openstreetmap.gui.jmapnavigator.GraphArtifactStore.ArtifactListener;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Route solver on a {@link ContractionHierarchy}. Searches upward from start and backward-upward from target, the shortest route
+ * meets at the highest ranked node on it. Shortcuts of the route found are unpacked to the original nodes.
+ * <p>
+ * The hierarchy is loaded from the artifact store or built in background after construction. Until then routes are calculated
+ * with plain bidirectional Dijkstra.
+ */
+public class ContractionHierarchyRouteSolver extends BidirectionalDijkstraRouteSolver {
+
+	// Set once when loaded or built, not replaced afterwards
+	private volatile ContractionHierarchy hierarchy;
+	// Used for queries until hierarchy is available
+	private final BidirectionalDijkstraRouteSolver fallbackSolver;
+
+
+
+	/**
+	 * Constructor, starts loading or building the contraction hierarchy in background
+	 */
+	public ContractionHierarchyRouteSolver(RoutingService routingService, GraphArtifactStore artifactStore) {
+		super(routingService);
+		fallbackSolver = new BidirectionalDijkstraRouteSolver(routingService);
+
+		artifactStore.loadOrBuildAsync(ContractionHierarchy.ARTIFACT_NAME, ContractionHierarchy.ARTIFACT_VERSION,
+				ContractionHierarchy.ARTIFACT_CODEC, ContractionHierarchy.ARTIFACT_BUILDER, new ArtifactListener<ContractionHierarchy>() {
+
+					@Override
+					public void artifactReady(ContractionHierarchy artifact) {
+						hierarchy = artifact;
+						System.out.println("Contraction hierarchy ready");
+					}
+				});
+	}
+
+
+	@Override
+	public String getName() {
+		return "Contraction Hierarchies";
+	}
+
+	public boolean isHierarchyReady() {
+		return hierarchy != null;
+	}
+
+
+
+	@Override
+	protected RouteResult doRouting(SearchContext context) {
+		if (hierarchy == null) {
+			System.out.println("Contraction hierarchy not ready yet, using bidirectional Dijkstra");
+			return fallbackSolver.doRouting(context);
+		}
+		return super.doRouting(context);
+	}
+
+
+	/**
+	 * Each direction stops when it cannot improve the best route anymore
+	 */
+	@Override
+	protected boolean isSearchFinished(SearchContext context, float forwardMin, float backwardMin) {
+		return forwardMin >= context.bestRouteDist && backwardMin >= context.bestRouteDist;
+	}
+
+
+	@Override
+	protected void expandForward(SearchContext context, int visNodeIndex) {
+		ContractionHierarchy queryHierarchy = hierarchy;
+		float visNodeDist = context.forwardTree.getDist(visNodeIndex);
+		int edgesEnd = queryHierarchy.getUpEdgesEnd(visNodeIndex);
+		for (int i = queryHierarchy.getUpEdgesStart(visNodeIndex); i < edgesEnd; i++) {
+			int edgeNodeIndex = queryHierarchy.getUpEdgeTarget(i);
+			if (context.forwardTree.isSettled(edgeNodeIndex)) continue;
+
+			float dist = visNodeDist + queryHierarchy.getUpEdgeDist(i);
+			relaxEdge(context.forwardHeap, context.forwardTree, visNodeIndex, edgeNodeIndex, dist);
+			checkMeeting(context, edgeNodeIndex, dist, context.backwardTree);
+		}
+	}
+
+	@Override
+	protected void expandBackward(SearchContext context, int visNodeIndex) {
+		ContractionHierarchy queryHierarchy = hierarchy;
+		float visNodeDist = context.backwardTree.getDist(visNodeIndex);
+		int edgesEnd = queryHierarchy.getDownEdgesEnd(visNodeIndex);
+		for (int i = queryHierarchy.getDownEdgesStart(visNodeIndex); i < edgesEnd; i++) {
+			int edgeNodeIndex = queryHierarchy.getDownEdgeSource(i);
+			if (context.backwardTree.isSettled(edgeNodeIndex)) continue;
+
+			float dist = visNodeDist + queryHierarchy.getDownEdgeDist(i);
+			relaxEdge(context.backwardHeap, context.backwardTree, visNodeIndex, edgeNodeIndex, dist);
+			checkMeeting(context, edgeNodeIndex, dist, context.forwardTree);
+		}
+	}
+
+
+	/**
+	 * Unpacks shortcuts to original nodes
+	 */
+	@Override
+	protected void appendRouteEdge(int from, int to, IntArrayList routeNodes) {
+		hierarchy.unpackEdge(from, to, routeNodes);
+	}
+}
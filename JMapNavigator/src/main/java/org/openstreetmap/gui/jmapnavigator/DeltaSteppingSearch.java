@@ -0,0 +1,297 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Parallel one-to-all search by delta-stepping. Nodes are kept in buckets of width delta by their tentative route time. The
+ * nodes of the lowest bucket are relaxed in parallel on a fork-join pool, first over light edges (not longer than delta) until
+ * the bucket stays empty, then over heavy edges.
+ * <p>
+ * Route times are updated lock-free by an atomic minimum on the bits of the float, which order like the values for non-negative
+ * floats. Float addition is monotonic, so the search converges to the same route times as {@link DijkstraRouteSolver}.
+ */
+@SuppressWarnings("javadoc")
+public class DeltaSteppingSearch {
+
+	// Bucket width in seconds of route time
+	public static final float DEFAULT_DELTA = 10.0f;
+	// Nodes relaxed by one task
+	private static final int CHUNK_NODES = 256;
+	private static final int INFINITY_BITS = Float.floatToRawIntBits(Float.POSITIVE_INFINITY);
+
+	private final RouteGraph graph;
+	private final ForkJoinPool pool;
+	private final float delta;
+
+
+	/**
+	 * Relaxes edges of frontier nodes from..to-1
+	 *
+	 * @return Nodes with decreased route time, may contain duplicates
+	 */
+	private class RelaxTask extends RecursiveTask<IntArrayList> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicIntegerArray dists;
+		private final int[] frontier;
+		private final int from;
+		private final int to;
+		private final boolean lightEdges;
+		private final boolean backward;
+
+		RelaxTask(AtomicIntegerArray dists, int[] frontier, int from, int to, boolean lightEdges, boolean backward) {
+			this.dists = dists;
+			this.frontier = frontier;
+			this.from = from;
+			this.to = to;
+			this.lightEdges = lightEdges;
+			this.backward = backward;
+		}
+
+		@Override
+		protected IntArrayList compute() {
+			if (to - from > CHUNK_NODES) {
+				int mid = (from + to) >>> 1;
+				RelaxTask left = new RelaxTask(dists, frontier, from, mid, lightEdges, backward);
+				left.fork();
+				IntArrayList updated = new RelaxTask(dists, frontier, mid, to, lightEdges, backward).compute();
+				updated.addAll(left.join());
+				return updated;
+			}
+
+			IntArrayList updated = new IntArrayList();
+			RouteGraph.EdgeCursor edges = graph.createEdgeCursor(backward);
+			for (int i = from; i < to; i++) {
+				int node = frontier[i];
+				float nodeDist = Float.intBitsToFloat(dists.get(node));
+				edges.reset(node);
+				while (edges.next()) {
+					float edgeDist = edges.getDist();
+					if ((edgeDist <= delta) != lightEdges) continue;
+
+					int edgeNode = edges.getTarget();
+					if (atomicMin(dists, edgeNode, nodeDist + edgeDist)) {
+						updated.add(edgeNode);
+					}
+				}
+			}
+			return updated;
+		}
+	}
+
+
+
+	/**
+	 * Creates search with default delta on the common fork-join pool
+	 */
+	public DeltaSteppingSearch(RouteGraph graph) {
+		this(graph, ForkJoinPool.commonPool(), DEFAULT_DELTA);
+	}
+
+	/**
+	 * @param delta
+	 *            Bucket width in seconds. Small values give less wasted relaxations but less parallelism per bucket.
+	 */
+	public DeltaSteppingSearch(RouteGraph graph, ForkJoinPool pool, float delta) {
+		if (!(delta > 0.0f)) {
+			throw new IllegalArgumentException("Delta must be positive: " + delta);
+		}
+		this.graph = graph;
+		this.pool = pool;
+		this.delta = delta;
+	}
+
+
+	/**
+	 * Calculates route times from source to all nodes
+	 *
+	 * @return Route time to each node, infinite if not reachable
+	 */
+	public float[] searchAll(int source) {
+		return searchAll(new int[] { source }, new float[] { 0.0f }, false);
+	}
+
+	/**
+	 * Calculates route times from start point to all nodes
+	 *
+	 * @return Route time to each node, infinite if not reachable
+	 */
+	public float[] searchAll(RoutePoint startPoint) {
+		int[] sources = new int[startPoint.getNodeCount()];
+		float[] startCosts = new float[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = startPoint.getNode(i);
+			startCosts[i] = startPoint.getStartCost(i);
+		}
+		return searchAll(sources, startCosts, false);
+	}
+
+	/**
+	 * Calculates route times from sources to all nodes
+	 *
+	 * @param startCosts
+	 *            Route time to reach each source, infinite to ignore source
+	 * @param backward
+	 *            Search on reverse edges, route times are to the sources
+	 * @return Route time to each node, infinite if not reachable
+	 */
+	public float[] searchAll(int[] sources, float[] startCosts, boolean backward) {
+		int nodeCount = graph.getNodeCount();
+		AtomicIntegerArray dists = new AtomicIntegerArray(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			dists.lazySet(i, INFINITY_BITS);
+		}
+		// Stamp of last frontier a node was in, removes duplicates and nodes moved to lower buckets
+		int[] frontierStamps = new int[nodeCount];
+		int frontierStamp = 0;
+
+		List<IntArrayList> buckets = new ArrayList<>();
+		for (int i = 0; i < sources.length; i++) {
+			if (startCosts[i] != Float.POSITIVE_INFINITY && atomicMin(dists, sources[i], startCosts[i])) {
+				addToBucket(buckets, sources[i], startCosts[i]);
+			}
+		}
+
+		for (int iBucket = 0; iBucket < buckets.size(); iBucket++) {
+			IntArrayList bucketSettled = new IntArrayList();
+
+			// Light edges can add nodes to this bucket again
+			while (buckets.get(iBucket) != null && !buckets.get(iBucket).isEmpty()) {
+				IntArrayList bucket = buckets.get(iBucket);
+				buckets.set(iBucket, new IntArrayList());
+
+				frontierStamp++;
+				IntArrayList frontier = new IntArrayList(bucket.size());
+				for (int i = 0; i < bucket.size(); i++) {
+					int node = bucket.getInt(i);
+					if (frontierStamps[node] != frontierStamp && getBucket(Float.intBitsToFloat(dists.get(node))) == iBucket) {
+						frontierStamps[node] = frontierStamp;
+						frontier.add(node);
+					}
+				}
+				bucketSettled.addAll(frontier);
+				relax(dists, buckets, frontier, true, backward);
+			}
+
+			// Heavy edges only reach later buckets
+			frontierStamp++;
+			IntArrayList heavyFrontier = new IntArrayList(bucketSettled.size());
+			for (int i = 0; i < bucketSettled.size(); i++) {
+				int node = bucketSettled.getInt(i);
+				if (frontierStamps[node] != frontierStamp) {
+					frontierStamps[node] = frontierStamp;
+					heavyFrontier.add(node);
+				}
+			}
+			relax(dists, buckets, heavyFrontier, false, backward);
+			buckets.set(iBucket, null);
+		}
+
+		float[] result = new float[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			result[i] = Float.intBitsToFloat(dists.get(i));
+		}
+		return result;
+	}
+
+
+	private void relax(AtomicIntegerArray dists, List<IntArrayList> buckets, IntArrayList frontier, boolean lightEdges,
+			boolean backward) {
+		if (frontier.isEmpty()) {
+			return;
+		}
+		RelaxTask task = new RelaxTask(dists, frontier.elements(), 0, frontier.size(), lightEdges, backward);
+		IntArrayList updated = (frontier.size() > CHUNK_NODES) ? pool.invoke(task) : task.compute();
+		for (int i = 0; i < updated.size(); i++) {
+			int node = updated.getInt(i);
+			addToBucket(buckets, node, Float.intBitsToFloat(dists.get(node)));
+		}
+	}
+
+	private void addToBucket(List<IntArrayList> buckets, int node, float dist) {
+		int iBucket = getBucket(dist);
+		while (buckets.size() <= iBucket) {
+			buckets.add(new IntArrayList());
+		}
+		buckets.get(iBucket).add(node);
+	}
+
+	private int getBucket(float dist) {
+		return (int) (dist / delta);
+	}
+
+
+	/**
+	 * Sets route time of node to value if smaller, lock-free
+	 *
+	 * @return True if route time was decreased
+	 */
+	private static boolean atomicMin(AtomicIntegerArray dists, int node, float value) {
+		// Bits of non-negative floats order like their values
+		int valueBits = Float.floatToRawIntBits(value);
+		int currentBits = dists.get(node);
+		while (valueBits < currentBits) {
+			if (dists.compareAndSet(node, currentBits, valueBits)) {
+				return true;
+			}
+			currentBits = dists.get(node);
+		}
+		return false;
+	}
+
+
+
+	/**
+	 * Benchmark: Compares route times and run time of delta-stepping with sequential Dijkstra from random sources
+	 *
+	 * @param args
+	 *            [sources] [delta] [parallelism]
+	 */
+	public static void main(String[] args) throws Exception {
+		int sourceCount = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		float delta = (args.length > 1) ? Float.parseFloat(args[1]) : DEFAULT_DELTA;
+		int parallelism = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		RouteGraph graph = MappedGraphFile.loadOrConvert(RouteGraph.GRAPH_FILE, RouteGraph.MAPPED_GRAPH_FILE);
+		DeltaSteppingSearch search = new DeltaSteppingSearch(graph, new ForkJoinPool(parallelism), delta);
+		Random rd = new Random(0);
+		int[] sources = new int[sourceCount];
+		for (int i = 0; i < sourceCount; i++) {
+			sources[i] = rd.nextInt(graph.getNodeCount());
+		}
+
+		long dijkstraTime = 0;
+		long deltaSteppingTime = 0;
+		int mismatches = 0;
+		for (int source : sources) {
+			long startTime = System.nanoTime();
+			SearchTree tree = DijkstraRouteSolver.searchAll(graph, source, false);
+			dijkstraTime += System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			float[] dists = search.searchAll(source);
+			deltaSteppingTime += System.nanoTime() - startTime;
+
+			for (int node = 0; node < dists.length; node++) {
+				if (Float.floatToRawIntBits(dists[node]) != Float.floatToRawIntBits(tree.getDist(node))) {
+					mismatches++;
+				}
+			}
+		}
+
+		System.out.println(String.format("Delta-stepping with delta %.1fs and parallelism %d: %.1fms per search, Dijkstra %.1fms, "
+				+ "speedup %.2f, %d mismatching route times", delta, parallelism, deltaSteppingTime / 1000000.0 / sourceCount,
+				dijkstraTime / 1000000.0 / sourceCount, (double) dijkstraTime / Math.max(1, deltaSteppingTime), mismatches));
+		System.out.println("Sources: " + Arrays.toString(sources));
+	}
+}
@@ -1,401 +1,144 @@
 package org.openstreetmap.gui.jmapnavigator;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.Random;
-
-import org.openstreetmap.gui.jmapviewer.Coordinate;
-
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import it.unimi.dsi.fastutil.longs.LongSet;
-
-
-public class DijkstraRouteSolver implements IRouteSolver {
-
-	// General constants
-	private static final String GRAPH_DATA_DIR = "route_graph";
-	private static int ROUTE_HEAP_CAPACITY = 1000000;
-
-	private final Long2ObjectMap<MapNode> mapNodes = new Long2ObjectOpenHashMap<>();
-
-	private volatile RoutingState state = RoutingState.NotReady;
-	private Long startNodeIndex = null;
-	private Long targetNodeIndex = null;
-	private volatile boolean needsDispalyRefresh = false;
-	public float timeOfRoute = 0.0f; // Route time in seconds
-
-	// Debugging and routing preview
-	private List<Coordinate> routingPreviewDots = new LinkedList<>();
-	private static final double routingPreviewDotPropability = 0.999;
-
-	// Final route
-	private List<Coordinate> calculatedRoute = new LinkedList<>();
-	private Long bestCandidateNode;
-
-	// Pathfinding
-	private final NodeDistHeap routeDistHeap;
-	private long startTime;
-	private Random rd;
-	private Long2ObjectMap<DiscoveredPathNode> openList = new Long2ObjectOpenHashMap<>();
-	private LongSet closedList = new LongOpenHashSet();
-	private boolean found = false;
-	private DiscoveredPathNode foundNode;
-
 
+public class DijkstraRouteSolver extends AbstractRouteSolver {
 
 	/**
-	 * Constructor, loads grid data
+	 * Constructor
 	 */
-	public DijkstraRouteSolver() {
-
-		try {
-			intializeGrids();
+	public DijkstraRouteSolver(RoutingService routingService) {
+		super(routingService);
 
-			routeDistHeap = new NodeDistHeap(ROUTE_HEAP_CAPACITY);
-		}
-		catch (Exception e) {
-			System.err.println("Error at loadOsmData");
-			e.printStackTrace();
-			throw new RuntimeException(e);
-		}
+		state = RoutingState.Standby;
+	}
 
-		startNodeIndex = findNextNode(47.8f, 9.0f);
-		targetNodeIndex = findNextNode(49.15f, 9.22f);
 
-		state = RoutingState.Standby;
-		needsDispalyRefresh = true;
+	@Override
+	public String getName() {
+		return "Dijkstra";
 	}
 
 
 	/**
-	 * Read and initialize grid information
+	 * Heuristic estimate of the remaining route time from a node to the target. Must never overestimate, plain Dijkstra uses no
+	 * estimate.
 	 *
-	 * @throws Exception
+	 * @return Lower bound of route time from node to target
 	 */
-	private void intializeGrids() throws Exception {
-		System.out.println("Start loading map graph");
-		try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(GRAPH_DATA_DIR + "\\graph.bin")))) {
-			int numVertices = reader.readInt();
-			for (int iNode = 0; iNode < numVertices; iNode++) {
-				long index = reader.readInt();
-				float lat = (float) reader.readDouble(); // TODO Double?
-				float lon = (float) reader.readDouble();
-
-				int numEdges = reader.readInt();
-				long[] edgeTargets = new long[numEdges];
-				float[] edgeDists = new float[numEdges];
-				for (int iEdge = 0; iEdge < numEdges; iEdge++) {
-					edgeTargets[iEdge] = reader.readInt();
-					edgeDists[iEdge] = (float) reader.readDouble(); // TODO Double?
-				}
-				mapNodes.put(index, new MapNode(lat, lon, edgeTargets, edgeDists));
-			}
-		}
+	protected float calcHeuristic(SearchContext context, int nodeIndex) {
+		return 0.0f;
 	}
 
 
 
 	@Override
-	public void startCalculateRoute() {
-
-		if (state != RoutingState.Standby) {
-			System.err.println("Routing not available");
-			return;
+	protected RouteResult doRouting(SearchContext context) {
+		INodeQueue routeDistHeap = context.forwardHeap;
+		SearchTree tree = context.forwardTree; // Distances and predecessors of open and closed nodes
+		RouteGraph.EdgeCursor edges = context.forwardEdges;
+		RoutePoint startPoint = context.startPoint;
+		RoutePoint targetPoint = context.targetPoint;
+
+		// Add nodes of start point
+		for (int i = 0; i < startPoint.getNodeCount(); i++) {
+			int startNodeIndex = startPoint.getNode(i);
+			float startCost = startPoint.getStartCost(i);
+			if (startCost == Float.POSITIVE_INFINITY) continue;
+			routeDistHeap.add(startNodeIndex, startCost + calcHeuristic(context, startNodeIndex));
+			tree.setDist(startNodeIndex, -1, startCost);
 		}
 
-		if (startNodeIndex == null || targetNodeIndex == null) {
-			System.err.println("Cannot calculate route: Must select any start and target");
-			return;
-		}
-
-		this.state = RoutingState.Routing;
-		this.startTime = System.currentTimeMillis();
-		needsDispalyRefresh = true;
-
-		if (startNodeIndex == null || targetNodeIndex == null) {
-			System.err.println("Cannot calculate route: Must select valid start and target");
-			return;
-		}
-
-		rd = new Random(123);
-		routingPreviewDots.clear();
-
-		// Reset buffers and
-		routeDistHeap.resetEmpty();
-		openList.clear(); // Stores all open nodes
-		closedList.clear(); // Stores all closed nodes
-
-		// Add start node
-		routeDistHeap.add(startNodeIndex, 0.0f);
-		openList.put(startNodeIndex, new DiscoveredPathNode(startNodeIndex, null, 0));
-
-		found = false;
-		//		target = (long) targetNodeGridIndex;
-		//		visitedCount = 0;
-		//		hCalc = 0;
-		//		hReuse = 0;
-		//		gridChanges = 0;
-		//		gridStays = 0;
-		//		firstVisits = 0;
-		//		againVisits = 0;
-		//		fastFollows = 0;
+		// Start and target can be on the same road
+		context.bestRouteDist = RoutePoint.calcDirectDist(startPoint, targetPoint);
+		context.foundNode = -1;
 
-		//		System.out.println("Start routing from " + startLat + "/" + startLon + " to " + targetLat + "/" + targetLon);
-		System.out.println("Start routing from " + startNodeIndex + " to " + targetNodeIndex);
-		System.out.flush();
+		int visNodeIndex;
 
-
-		Thread routingThread = new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				System.out.println("Start doRouting thread");
-				try {
-					doRouting();
-				}
-				catch (Exception e) {
-					e.printStackTrace();
-				}
-				state = RoutingState.Standby;
-				System.out.println("Finishing doRouting thread");
+		// Find route with Dijkstra, until no node can lead to a better route
+		while (!routeDistHeap.isEmpty() && routeDistHeap.peekNodeValue() < context.bestRouteDist) {
+			if (context.shouldStop()) {
+				break;
 			}
-		});
-		routingThread.setName("RoutingThread");
-		routingThread.start();
-	}
-
-
-	private void doRouting() {
 
-		long visNodeIndex;
-		MapNode visNode;
-
-		// Find route with Dijkstra
-		while (!routeDistHeap.isEmpty()) {
-			// Remove and get index
+			// Remove and get index, settled nodes stay in tree for partial routes
 			visNodeIndex = routeDistHeap.removeFirst();
-			bestCandidateNode = visNodeIndex;
-			DiscoveredPathNode visDiscoveredNode = openList.remove(visNodeIndex);
-			closedList.add(visNodeIndex);
+			float visNodeDist = tree.getDist(visNodeIndex);
+			tree.settle(visNodeIndex);
+			context.listener.nodeSettled(visNodeIndex);
 
 			// Visit node/neighbors
-			if (visNodeIndex == targetNodeIndex) {
-				found = true;
-				foundNode = visDiscoveredNode;
-				break;
-			}
-
-			if (rd.nextFloat() > routingPreviewDotPropability) {
-				addNewPreviewDot(getNodeCoordinates(visNodeIndex));
-			}
-
-			visNode = mapNodes.get(visNodeIndex);
-			if (visNode == null) {
-				//System.err.println("No node " + visNodeIndex);
-				continue;
+			for (int i = 0; i < targetPoint.getNodeCount(); i++) {
+				float targetDist = visNodeDist + targetPoint.getTargetCost(i);
+				if (visNodeIndex == targetPoint.getNode(i) && targetDist < context.bestRouteDist) {
+					context.bestRouteDist = targetDist;
+					context.foundNode = visNodeIndex;
+				}
 			}
 
-			for (int i = 0; i < visNode.EdgeTargets.length; i++) {
-				long edgeNodeIndex = visNode.EdgeTargets[i];
-				if (closedList.contains(edgeNodeIndex)) continue;
+			edges.reset(visNodeIndex);
+			while (edges.next()) {
+				int edgeNodeIndex = edges.getTarget();
+				if (tree.isSettled(edgeNodeIndex)) continue;
 
-				float dist = visDiscoveredNode.Dist + visNode.EdgeDists[i];
-				DiscoveredPathNode edgeNode = openList.get(edgeNodeIndex);
-				if (edgeNode != null) {
+				float dist = visNodeDist + edges.getDist();
+				if (tree.isDiscovered(edgeNodeIndex)) {
 					// Already discovered
-					if (routeDistHeap.decreaseKeyIfSmaller(edgeNodeIndex, dist)) {
-						edgeNode.Pre = visDiscoveredNode;
-						edgeNode.Dist = dist;
+					if (dist < tree.getDist(edgeNodeIndex)) {
+						routeDistHeap.decreaseKeyIfSmaller(edgeNodeIndex, dist + calcHeuristic(context, edgeNodeIndex));
+						tree.setDist(edgeNodeIndex, visNodeIndex, dist);
 					}
 				}
 				else {
 					// Not discovered yet
-					routeDistHeap.add(edgeNodeIndex, dist);
-					openList.put(edgeNodeIndex, new DiscoveredPathNode(edgeNodeIndex, visDiscoveredNode, dist));
+					routeDistHeap.add(edgeNodeIndex, dist + calcHeuristic(context, edgeNodeIndex));
+					tree.setDist(edgeNodeIndex, visNodeIndex, dist);
 				}
 			}
 		}
 
-
-		//		System.out.println("H calc: " + hCalc);
-		//		System.out.println("H reuse: " + hReuse);
-		//		System.out.println("gridChanges: " + gridChanges);
-		//		System.out.println("gridStays: " + gridStays);
-		//		System.out.println("firstVisits: " + firstVisits);
-		//		System.out.println("againVisits: " + againVisits);
-		//		System.out.println("fastFollows: " + fastFollows);
-		System.out.println("MaxHeapSize: " + routeDistHeap.getSizeUsageMax());
-
-
-		// If found reconstruct route
-		if (found) {
-			// Reconstruct route
-			reconstructRoute();
-		}
-		else {
-			System.err.println("No way found");
+		// Reconstruct route if found, partial route if stopped before
+		if (context.stopReason != null && context.foundNode == -1 && context.bestRouteDist == Float.POSITIVE_INFINITY) {
+			int candidate = findBestCandidate(context);
+			return createPartialResult(context, tree.collectPath(candidate), (candidate != -1) ? tree.getDist(candidate) : 0.0f);
 		}
-
-
-		// Cleanup
-		openList.clear();
-		closedList.clear();
-		this.state = RoutingState.Standby;
-		needsDispalyRefresh = true;
-		System.out.println("Finished routing after " + (System.currentTimeMillis() - startTime) + "ms");
-	}
-
-
-	private void reconstructRoute() {
-
-		calculatedRoute.clear();
-
-		if (!found) {
-			return;
-		}
-
-
-		//		distOfRoute = 0.0f; // Route distance in metres
-		timeOfRoute = foundNode.Dist; // Route time in hours
-
-		DiscoveredPathNode node = foundNode;
-		do {
-			calculatedRoute.add(getNodeCoordinates(node.Index));
-			node = node.Pre;
-		} while (node != null);
-
-		//		System.out.println("Route Distance: " + ((int) distOfRoute / 1000.0f) + "km");
-		double timeOfRouteHours = timeOfRoute / 3600;
-		int timeHours = (int) (timeOfRouteHours);
-		int timeMinutes = (int) (60 * (timeOfRouteHours - timeHours));
-		int timeSeconds = (int) (3600 * (timeOfRouteHours - timeHours - (double) timeMinutes / 60));
-		System.out.println("Route time: " + timeHours + ":" + timeMinutes + ":" + timeSeconds);
-	}
-
-
-
-	// Start and end for route
-	@Override
-	public void setStartNode(long nodeGridIndex) {
-		startNodeIndex = nodeGridIndex;
-		needsDispalyRefresh = true;
-	}
-
-	@Override
-	public void setTargetNode(long nodeGridIndex) {
-		targetNodeIndex = nodeGridIndex;
-		needsDispalyRefresh = true;
-	}
-
-	@Override
-	public Coordinate getStartCoordinate() {
-		if (startNodeIndex == null) {
-			return null;
-		}
-		return getNodeCoordinates(startNodeIndex);
-	}
-
-	@Override
-	public Coordinate getTargetCoordinate() {
-		if (targetNodeIndex == null) {
-			return null;
-		}
-		return getNodeCoordinates(targetNodeIndex);
-	}
-
-	@Override
-	public RoutingState getRoutingState() {
-		return state;
-	}
-
-
-	@Override
-	public List<Coordinate> getCalculatedRoute() {
-		return calculatedRoute;
-	}
-
-	@Override
-	public boolean getNeedsDispalyRefresh() {
-		return needsDispalyRefresh;
-	}
-
-	@Override
-	public void resetNeedsDispalyRefresh() {
-		needsDispalyRefresh = false;
-	}
-
-
-	private synchronized void addNewPreviewDot(Coordinate dot) {
-		routingPreviewDots.add(dot);
-	}
-
-	@Override
-	public synchronized List<Coordinate> getRoutingPreviewDots() {
-		return new ArrayList<>(routingPreviewDots);
-	}
-
-	@Override
-	public Coordinate getBestCandidateCoords() {
-		if (bestCandidateNode == null) {
-			return null;
-		}
-		return getNodeCoordinates(bestCandidateNode);
-	}
-
-
-
-	@Override
-	public float getTimeOfRoute() {
-		return timeOfRoute;
+		return createResult(context, context.foundNode, context.bestRouteDist);
 	}
 
 
 	/**
-	 * Tries to determine coordinates of a node, tries to load grid if necessary
+	 * One-to-all Dijkstra from source, settles all reachable nodes
 	 *
-	 * @return Coordinates of node
+	 * @param backward
+	 *            Search on reverse edges, distances are route times to source
 	 */
-	private Coordinate getNodeCoordinates(long nodeGridIndex) {
-		MapNode node = mapNodes.get(nodeGridIndex);
-		return new Coordinate(node.Lat, node.Lon);
-	}
-
-
-
-	/**
-	 * Tries to find out index of next point to given coordinate
-	 *
-	 * @param coord
-	 * @return Index of next point
-	 */
-	@Override
-	public Long findNextNode(float lat, float lon) {
-		long nextIndex = -1;
-		float smallestDist = Float.MAX_VALUE;
-
-		for (Entry<Long, MapNode> node : mapNodes.entrySet()) {
-			//			if (!checkNodeWithFilter(grid, iN, filterBitMask, filterBitValue)) {
-			//				continue;
-			//			}
-
-			float dist = Utils.calcNodeDistPrecise(lat, lon, node.getValue().Lat, node.getValue().Lon);
-			if (dist < smallestDist) {
-				smallestDist = dist;
-				nextIndex = node.getKey();
+	public static SearchTree searchAll(RouteGraph graph, int source, boolean backward) {
+		int nodeCount = graph.getNodeCount();
+		NodeDistHeap heap = new NodeDistHeap(1000, nodeCount);
+		SearchTree tree = new SearchTree(nodeCount);
+		RouteGraph.EdgeCursor edges = graph.createEdgeCursor(backward);
+		heap.add(source, 0.0f);
+		tree.setDist(source, -1, 0.0f);
+
+		while (!heap.isEmpty()) {
+			int node = heap.removeFirst();
+			float nodeDist = tree.getDist(node);
+			tree.settle(node);
+
+			edges.reset(node);
+			while (edges.next()) {
+				int edgeNode = edges.getTarget();
+				if (tree.isSettled(edgeNode)) continue;
+
+				float dist = nodeDist + edges.getDist();
+				if (!tree.isDiscovered(edgeNode)) {
+					heap.add(edgeNode, dist);
+					tree.setDist(edgeNode, node, dist);
+				}
+				else if (heap.decreaseKeyIfSmaller(edgeNode, dist)) {
+					tree.setDist(edgeNode, node, dist);
+				}
 			}
 		}
-
-		if (nextIndex == -1) {
-			return null;
-		}
-
-		return nextIndex;
+		return tree;
 	}
 }
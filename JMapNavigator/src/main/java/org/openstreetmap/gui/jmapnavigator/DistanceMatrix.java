@@ -0,0 +1,105 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+/**
+ * Route times between all sources and targets calculated by a {@link DistanceMatrixCalculator}, with statistics of the
+ * calculation.
+ */
+@SuppressWarnings("javadoc")
+public final class DistanceMatrix {
+
+	private final RoutePoint[] sourcePoints;
+	private final RoutePoint[] targetPoints;
+	// Route time from source i to target j at [i][j]
+	private final float[][] routeTimes;
+	private final long settledNodeCount;
+	private final long calculationTime;
+
+
+
+	/**
+	 * @param routeTimes
+	 *            Route times in seconds, [source][target], infinite if not reachable. Not copied.
+	 * @param calculationTime
+	 *            Time to calculate matrix in milliseconds
+	 */
+	public DistanceMatrix(RoutePoint[] sourcePoints, RoutePoint[] targetPoints, float[][] routeTimes, long settledNodeCount,
+			long calculationTime) {
+		this.sourcePoints = sourcePoints;
+		this.targetPoints = targetPoints;
+		this.routeTimes = routeTimes;
+		this.settledNodeCount = settledNodeCount;
+		this.calculationTime = calculationTime;
+	}
+
+
+	public int getSourceCount() {
+		return sourcePoints.length;
+	}
+
+	public int getTargetCount() {
+		return targetPoints.length;
+	}
+
+	/**
+	 * @return Source snapped to road, null if no road found
+	 */
+	public RoutePoint getSourcePoint(int source) {
+		return sourcePoints[source];
+	}
+
+	/**
+	 * @return Target snapped to road, null if no road found
+	 */
+	public RoutePoint getTargetPoint(int target) {
+		return targetPoints[target];
+	}
+
+	/**
+	 * @return Route time in seconds, infinite if not reachable
+	 */
+	public float getRouteTime(int source, int target) {
+		return routeTimes[source][target];
+	}
+
+	/**
+	 * @return Dense matrix of route times in seconds, [source][target]. Not a copy, must not be modified.
+	 */
+	public float[][] getRouteTimes() {
+		return routeTimes;
+	}
+
+	/**
+	 * @return Number of nodes settled by all searches
+	 */
+	public long getSettledNodeCount() {
+		return settledNodeCount;
+	}
+
+	/**
+	 * @return Time to calculate matrix in milliseconds
+	 */
+	public long getCalculationTime() {
+		return calculationTime;
+	}
+
+	/**
+	 * @return Matrix entries calculated per second
+	 */
+	public double getEntriesPerSecond() {
+		return (double) sourcePoints.length * targetPoints.length * 1000.0 / Math.max(1, calculationTime);
+	}
+
+	/**
+	 * @return Source searches finished per second
+	 */
+	public double getSearchesPerSecond() {
+		return sourcePoints.length * 1000.0 / Math.max(1, calculationTime);
+	}
+
+
+	@Override
+	public String toString() {
+		return String.format("%dx%d matrix after %dms: %.0f entries/s, %.1f searches/s, %d settled nodes", sourcePoints.length,
+				targetPoints.length, calculationTime, getEntriesPerSecond(), getSearchesPerSecond(), settledNodeCount);
+	}
+}
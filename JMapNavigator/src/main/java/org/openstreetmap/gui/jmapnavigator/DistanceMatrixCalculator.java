@@ -0,0 +1,191 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Calculates route time matrices between many sources and targets. Runs one Dijkstra per source, in parallel, which stops when
+ * all target nodes are settled. The route times to all targets are then read off the search tree together.
+ * <p>
+ * Rows take search contexts from the {@link RoutingService}, contexts beyond the number of routing threads are dropped after the
+ * matrix.
+ */
+@SuppressWarnings("javadoc")
+public class DistanceMatrixCalculator {
+
+	private final RoutingService routingService;
+	private final RouteGraph graph;
+	private final ForkJoinPool pool;
+
+
+
+	/**
+	 * Creates calculator running searches on the common fork-join pool
+	 */
+	public DistanceMatrixCalculator(RoutingService routingService) {
+		this(routingService, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool
+	 *            Pool to run searches of the sources on
+	 */
+	public DistanceMatrixCalculator(RoutingService routingService, ForkJoinPool pool) {
+		this.routingService = routingService;
+		this.graph = routingService.getGraph();
+		this.pool = pool;
+	}
+
+
+
+	/**
+	 * Snaps coordinates to the closest roads and calculates route times between them
+	 */
+	public DistanceMatrix calculate(float[] sourceLats, float[] sourceLons, float[] targetLats, float[] targetLons) {
+		return calculate(snapToRoad(sourceLats, sourceLons), snapToRoad(targetLats, targetLons));
+	}
+
+	private RoutePoint[] snapToRoad(float[] lats, float[] lons) {
+		if (lats.length != lons.length) {
+			throw new IllegalArgumentException("Different number of latitudes and longitudes");
+		}
+		RoutePoint[] points = new RoutePoint[lats.length];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = graph.findNextRoadPoint(lats[i], lons[i]);
+		}
+		return points;
+	}
+
+
+	/**
+	 * Calculates route times from all sources to all targets
+	 *
+	 * @param sourcePoints
+	 *            Sources, null entries have no route to any target
+	 * @param targetPoints
+	 *            Targets, null entries are not reachable from any source
+	 */
+	public DistanceMatrix calculate(final RoutePoint[] sourcePoints, final RoutePoint[] targetPoints) {
+		long startTime = System.currentTimeMillis();
+
+		// Graph nodes the targets are connected to, all must be settled by a search
+		final boolean[] isTargetNode = new boolean[graph.getNodeCount()];
+		int targetNodes = 0;
+		for (RoutePoint target : targetPoints) {
+			for (int i = 0; target != null && i < target.getNodeCount(); i++) {
+				if (target.getTargetCost(i) != Float.POSITIVE_INFINITY && !isTargetNode[target.getNode(i)]) {
+					isTargetNode[target.getNode(i)] = true;
+					targetNodes++;
+				}
+			}
+		}
+		final int targetNodeCount = targetNodes;
+
+		final float[][] routeTimes = new float[sourcePoints.length][];
+		List<Callable<Integer>> tasks = new ArrayList<>(sourcePoints.length);
+		for (int i = 0; i < sourcePoints.length; i++) {
+			final int source = i;
+			tasks.add(new Callable<Integer>() {
+
+				@Override
+				public Integer call() {
+					routeTimes[source] = new float[targetPoints.length];
+					return calculateRow(sourcePoints[source], targetPoints, isTargetNode, targetNodeCount, routeTimes[source]);
+				}
+			});
+		}
+
+		long settledNodeCount = 0;
+		try {
+			for (Future<Integer> task : pool.invokeAll(tasks)) {
+				settledNodeCount += task.get();
+			}
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Failed to calculate distance matrix", e);
+		}
+
+		DistanceMatrix matrix = new DistanceMatrix(sourcePoints, targetPoints, routeTimes, settledNodeCount,
+				System.currentTimeMillis() - startTime);
+		System.out.println("Calculated " + matrix);
+		return matrix;
+	}
+
+
+	/**
+	 * Searches from source until all target nodes are settled and fills one row of the matrix
+	 *
+	 * @return Number of settled nodes
+	 */
+	private int calculateRow(RoutePoint sourcePoint, RoutePoint[] targetPoints, boolean[] isTargetNode, int targetNodeCount,
+			float[] row) {
+		if (sourcePoint == null) {
+			Arrays.fill(row, Float.POSITIVE_INFINITY);
+			return 0;
+		}
+
+		SearchContext context = routingService.acquireContext();
+		try {
+			INodeQueue heap = context.forwardHeap;
+			SearchTree tree = context.forwardTree;
+			RouteGraph.EdgeCursor edges = context.forwardEdges;
+			for (int i = 0; i < sourcePoint.getNodeCount(); i++) {
+				float startCost = sourcePoint.getStartCost(i);
+				if (startCost == Float.POSITIVE_INFINITY) continue;
+				heap.add(sourcePoint.getNode(i), startCost);
+				tree.setDist(sourcePoint.getNode(i), -1, startCost);
+			}
+
+			int targetNodesLeft = targetNodeCount;
+			while (!heap.isEmpty() && targetNodesLeft > 0) {
+				int node = heap.removeFirst();
+				float nodeDist = tree.getDist(node);
+				tree.settle(node);
+				if (isTargetNode[node]) {
+					targetNodesLeft--;
+				}
+
+				edges.reset(node);
+				while (edges.next()) {
+					int edgeNode = edges.getTarget();
+					if (tree.isSettled(edgeNode)) continue;
+
+					float dist = nodeDist + edges.getDist();
+					if (!tree.isDiscovered(edgeNode)) {
+						heap.add(edgeNode, dist);
+						tree.setDist(edgeNode, node, dist);
+					}
+					else if (heap.decreaseKeyIfSmaller(edgeNode, dist)) {
+						tree.setDist(edgeNode, node, dist);
+					}
+				}
+			}
+
+			// Distances of settled target nodes are final, unsettled ones are not reachable
+			for (int j = 0; j < targetPoints.length; j++) {
+				RoutePoint target = targetPoints[j];
+				if (target == null) {
+					row[j] = Float.POSITIVE_INFINITY;
+					continue;
+				}
+				float routeTime = RoutePoint.calcDirectDist(sourcePoint, target);
+				for (int i = 0; i < target.getNodeCount(); i++) {
+					if (tree.isSettled(target.getNode(i))) {
+						routeTime = Math.min(routeTime, tree.getDist(target.getNode(i)) + target.getTargetCost(i));
+					}
+				}
+				row[j] = routeTime;
+			}
+			return tree.getSettledNodeCount();
+		}
+		finally {
+			routingService.releaseContext(context);
+		}
+	}
+}
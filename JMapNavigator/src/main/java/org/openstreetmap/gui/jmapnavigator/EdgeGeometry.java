@@ -0,0 +1,133 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+
+
+/**
+ * Shape points of graph edges which stand for a chain of roads, as created by {@link ChainCompression}. The shape points of edge
+ * e are stored at pointOffsets[e]..pointOffsets[e+1]-1 in order from edge source to edge target, edge source and target are not
+ * included. Each point has the fraction of the edge route time at which it is passed.
+ */
+@SuppressWarnings("javadoc")
+public class EdgeGeometry {
+
+	private final IntBuffer pointOffsets;
+	private final FloatBuffer pointsLat;
+	private final FloatBuffer pointsLon;
+	private final FloatBuffer pointFractions;
+
+
+	public EdgeGeometry(int[] pointOffsets, float[] pointsLat, float[] pointsLon, float[] pointFractions) {
+		this(IntBuffer.wrap(pointOffsets), FloatBuffer.wrap(pointsLat), FloatBuffer.wrap(pointsLon),
+				FloatBuffer.wrap(pointFractions));
+	}
+
+	/**
+	 * Constructor for buffers on or off heap, buffers are used directly
+	 */
+	public EdgeGeometry(IntBuffer pointOffsets, FloatBuffer pointsLat, FloatBuffer pointsLon, FloatBuffer pointFractions) {
+		this.pointOffsets = pointOffsets;
+		this.pointsLat = pointsLat;
+		this.pointsLon = pointsLon;
+		this.pointFractions = pointFractions;
+	}
+
+
+	/**
+	 * @return Geometry with all points in direct buffers, this geometry if it is off heap already
+	 */
+	public EdgeGeometry copyOffHeap() {
+		if (isOffHeap()) {
+			return this;
+		}
+		return new EdgeGeometry(RouteGraph.copyToDirect(pointOffsets), RouteGraph.copyToDirect(pointsLat),
+				RouteGraph.copyToDirect(pointsLon), RouteGraph.copyToDirect(pointFractions));
+	}
+
+	public boolean isOffHeap() {
+		return pointOffsets.isDirect() && pointsLat.isDirect() && pointsLon.isDirect() && pointFractions.isDirect();
+	}
+
+
+	/**
+	 * @return Index of first shape point of edge
+	 */
+	public int getPointsStart(int edge) {
+		return pointOffsets.get(edge);
+	}
+
+	/**
+	 * @return Index after last shape point of edge
+	 */
+	public int getPointsEnd(int edge) {
+		return pointOffsets.get(edge + 1);
+	}
+
+	public float getPointLat(int point) {
+		return pointsLat.get(point);
+	}
+
+	public float getPointLon(int point) {
+		return pointsLon.get(point);
+	}
+
+	/**
+	 * @return Fraction of edge route time from edge source to point
+	 */
+	public float getPointFraction(int point) {
+		return pointFractions.get(point);
+	}
+
+	public int getPointCount() {
+		return pointsLat.limit();
+	}
+
+
+	/**
+	 * Adds all shape points of edge to route
+	 *
+	 * @param reverse
+	 *            Add from target to source
+	 */
+	public void appendPoints(int edge, boolean reverse, List<Coordinate> route) {
+		if (reverse) {
+			for (int i = getPointsEnd(edge) - 1; i >= getPointsStart(edge); i--) {
+				route.add(new Coordinate(pointsLat.get(i), pointsLon.get(i)));
+			}
+		}
+		else {
+			for (int i = getPointsStart(edge); i < getPointsEnd(edge); i++) {
+				route.add(new Coordinate(pointsLat.get(i), pointsLon.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Adds shape points of edge between two positions to route, in order from first to second position
+	 *
+	 * @param fromFraction
+	 *            First position as fraction of edge route time
+	 * @param toFraction
+	 *            Second position as fraction of edge route time
+	 */
+	public void appendPoints(int edge, float fromFraction, float toFraction, List<Coordinate> route) {
+		if (fromFraction > toFraction) {
+			for (int i = getPointsEnd(edge) - 1; i >= getPointsStart(edge); i--) {
+				if (pointFractions.get(i) < fromFraction && pointFractions.get(i) > toFraction) {
+					route.add(new Coordinate(pointsLat.get(i), pointsLon.get(i)));
+				}
+			}
+		}
+		else {
+			for (int i = getPointsStart(edge); i < getPointsEnd(edge); i++) {
+				if (pointFractions.get(i) > fromFraction && pointFractions.get(i) < toFraction) {
+					route.add(new Coordinate(pointsLat.get(i), pointsLon.get(i)));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+
+/**
+ * Static R-tree over the bounding boxes of the edges of a {@link RouteGraph}, packed with sort-tile-recursive. Finds the road
+ * segment closest to a coordinate by best first search. Of two opposite edges only one is indexed. Edges with shape points are
+ * indexed with the box of all their segments.
+ * <p>
+ * Distances are measured in an equirectangular projection around the query coordinate, which is accurate for the short
+ * distances of snapping.
+ */
+@SuppressWarnings("javadoc")
+public class EdgeRTree {
+
+	private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+	private static final int NODE_CAPACITY = 16;
+
+	private final RouteGraph graph;
+	// Shape points of edges, null if edges are straight
+	private final EdgeGeometry geometry;
+
+	// Tree nodes, nodes below leafNodeCount are leaves with edges as children
+	private final float[] boxMinLat;
+	private final float[] boxMaxLat;
+	private final float[] boxMinLon;
+	private final float[] boxMaxLon;
+	private final int[] childrenStart;
+	private final int[] childrenEnd;
+	private final int leafNodeCount;
+	private final int rootNode;
+	// Children of leaves (edge indices) and of inner nodes (tree node indices)
+	private final int[] leafEdges;
+	private final int[] innerChildren;
+
+
+
+	public EdgeRTree(RouteGraph graph) {
+		this.graph = graph;
+		this.geometry = graph.getEdgeGeometry();
+
+		// Collect edges, skip edges with an opposite edge of higher index
+		IntArrayList edges = new IntArrayList();
+		for (int iNode = 0; iNode < graph.getNodeCount(); iNode++) {
+			for (int iEdge = graph.getEdgesStart(iNode); iEdge < graph.getEdgesEnd(iNode); iEdge++) {
+				int target = graph.getEdgeTarget(iEdge);
+				if (target == iNode || (target < iNode && graph.findEdge(target, iNode) != -1)) {
+					continue;
+				}
+				edges.add(iEdge);
+			}
+		}
+
+		int edgeCount = edges.size();
+		float[] itemMinLat = new float[edgeCount];
+		float[] itemMaxLat = new float[edgeCount];
+		float[] itemMinLon = new float[edgeCount];
+		float[] itemMaxLon = new float[edgeCount];
+		int[] edgeSources = new int[graph.getEdgeCount()];
+		for (int iNode = 0; iNode < graph.getNodeCount(); iNode++) {
+			for (int iEdge = graph.getEdgesStart(iNode); iEdge < graph.getEdgesEnd(iNode); iEdge++) {
+				edgeSources[iEdge] = iNode;
+			}
+		}
+		for (int i = 0; i < edgeCount; i++) {
+			int edge = edges.getInt(i);
+			int from = edgeSources[edge];
+			int to = graph.getEdgeTarget(edge);
+			itemMinLat[i] = Math.min(graph.getNodeLat(from), graph.getNodeLat(to));
+			itemMaxLat[i] = Math.max(graph.getNodeLat(from), graph.getNodeLat(to));
+			itemMinLon[i] = Math.min(graph.getNodeLon(from), graph.getNodeLon(to));
+			itemMaxLon[i] = Math.max(graph.getNodeLon(from), graph.getNodeLon(to));
+			if (geometry != null) {
+				for (int iPoint = geometry.getPointsStart(edge); iPoint < geometry.getPointsEnd(edge); iPoint++) {
+					itemMinLat[i] = Math.min(itemMinLat[i], geometry.getPointLat(iPoint));
+					itemMaxLat[i] = Math.max(itemMaxLat[i], geometry.getPointLat(iPoint));
+					itemMinLon[i] = Math.min(itemMinLon[i], geometry.getPointLon(iPoint));
+					itemMaxLon[i] = Math.max(itemMaxLon[i], geometry.getPointLon(iPoint));
+				}
+			}
+		}
+
+		// Build levels bottom up
+		FloatArrayList nodeMinLat = new FloatArrayList();
+		FloatArrayList nodeMaxLat = new FloatArrayList();
+		FloatArrayList nodeMinLon = new FloatArrayList();
+		FloatArrayList nodeMaxLon = new FloatArrayList();
+		IntArrayList nodeChildrenStart = new IntArrayList();
+		IntArrayList nodeChildrenEnd = new IntArrayList();
+		IntArrayList children = new IntArrayList();
+
+		int[] itemIds = edges.toIntArray();
+		int[] leafEdgeList = null;
+		int leafNodes = 0;
+		boolean leafLevel = true;
+		do {
+			int[] order = sortTileRecursive(itemMinLat, itemMaxLat, itemMinLon, itemMaxLon);
+			int levelStart = nodeMinLat.size();
+			int childStart = leafLevel ? 0 : children.size();
+			int[] levelChildren = new int[order.length];
+
+			for (int i = 0; i < order.length; i += NODE_CAPACITY) {
+				int end = Math.min(order.length, i + NODE_CAPACITY);
+				float minLat = Float.MAX_VALUE, maxLat = -Float.MAX_VALUE, minLon = Float.MAX_VALUE, maxLon = -Float.MAX_VALUE;
+				for (int j = i; j < end; j++) {
+					int item = order[j];
+					levelChildren[j] = itemIds[item];
+					minLat = Math.min(minLat, itemMinLat[item]);
+					maxLat = Math.max(maxLat, itemMaxLat[item]);
+					minLon = Math.min(minLon, itemMinLon[item]);
+					maxLon = Math.max(maxLon, itemMaxLon[item]);
+				}
+				nodeMinLat.add(minLat);
+				nodeMaxLat.add(maxLat);
+				nodeMinLon.add(minLon);
+				nodeMaxLon.add(maxLon);
+				nodeChildrenStart.add(childStart + i);
+				nodeChildrenEnd.add(childStart + end);
+			}
+			int levelEnd = nodeMinLat.size();
+
+			if (leafLevel) {
+				leafEdgeList = levelChildren;
+				leafNodes = levelEnd;
+				leafLevel = false;
+			}
+			else {
+				children.addElements(children.size(), levelChildren);
+			}
+
+			// Nodes of this level are items of next level
+			int levelSize = levelEnd - levelStart;
+			itemIds = new int[levelSize];
+			itemMinLat = new float[levelSize];
+			itemMaxLat = new float[levelSize];
+			itemMinLon = new float[levelSize];
+			itemMaxLon = new float[levelSize];
+			for (int i = 0; i < levelSize; i++) {
+				itemIds[i] = levelStart + i;
+				itemMinLat[i] = nodeMinLat.getFloat(levelStart + i);
+				itemMaxLat[i] = nodeMaxLat.getFloat(levelStart + i);
+				itemMinLon[i] = nodeMinLon.getFloat(levelStart + i);
+				itemMaxLon[i] = nodeMaxLon.getFloat(levelStart + i);
+			}
+		} while (itemIds.length > 1);
+
+		boxMinLat = nodeMinLat.toFloatArray();
+		boxMaxLat = nodeMaxLat.toFloatArray();
+		boxMinLon = nodeMinLon.toFloatArray();
+		boxMaxLon = nodeMaxLon.toFloatArray();
+		childrenStart = nodeChildrenStart.toIntArray();
+		childrenEnd = nodeChildrenEnd.toIntArray();
+		leafNodeCount = leafNodes;
+		rootNode = boxMinLat.length - 1;
+		leafEdges = leafEdgeList;
+		innerChildren = children.toIntArray();
+
+		System.out.println("Built edge R-tree with " + edgeCount + " edges and " + boxMinLat.length + " tree nodes");
+	}
+
+
+	/**
+	 * Sort-tile-recursive order of boxes: Vertical slices sorted by longitude, each slice sorted by latitude
+	 */
+	private static int[] sortTileRecursive(float[] minLat, float[] maxLat, final float[] minLon, final float[] maxLon) {
+		int count = minLat.length;
+		final float[] centerLat = new float[count];
+		final float[] centerLon = new float[count];
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			centerLat[i] = (minLat[i] + maxLat[i]) / 2;
+			centerLon[i] = (minLon[i] + maxLon[i]) / 2;
+			order[i] = i;
+		}
+
+		IntArrays.quickSort(order, new AbstractIntComparator() {
+
+			@Override
+			public int compare(int a, int b) {
+				return Float.compare(centerLon[a], centerLon[b]);
+			}
+		});
+
+		int nodeCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+		int sliceSize = sliceCount * NODE_CAPACITY;
+		for (int i = 0; i < count; i += sliceSize) {
+			IntArrays.quickSort(order, i, Math.min(count, i + sliceSize), new AbstractIntComparator() {
+
+				@Override
+				public int compare(int a, int b) {
+					return Float.compare(centerLat[a], centerLat[b]);
+				}
+			});
+		}
+		return order;
+	}
+
+
+	/**
+	 * @return Source node of edge, edges are sorted by source
+	 */
+	private int findEdgeSource(int edge) {
+		int low = 0;
+		int high = graph.getNodeCount() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (graph.getEdgesStart(mid) <= edge) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		// Skip nodes without edges starting at same index
+		while (graph.getEdgesEnd(low) <= edge) {
+			low++;
+		}
+		return low;
+	}
+
+
+
+	/**
+	 * Finds the closest point on any road to given coordinate
+	 *
+	 * @param components
+	 *            Only find points on roads between nodes of the largest component if not null
+	 * @return Point on road or null if there is no road
+	 */
+	public RoutePoint findNextRoadPoint(float lat, float lon, StronglyConnectedComponents components) {
+		if (leafEdges.length == 0) {
+			return null;
+		}
+
+		double scaleLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+		double scaleLat = METERS_PER_DEGREE;
+
+		// Best first search, min heap of tree nodes by box distance
+		float[] heapDists = new float[64];
+		int[] heapNodes = new int[64];
+		int heapSize = 0;
+		heapDists[0] = 0.0f;
+		heapNodes[0] = rootNode;
+		heapSize = 1;
+
+		int bestEdge = -1;
+		double bestDist = Double.MAX_VALUE;
+		double bestFraction = 0;
+		float bestLat = 0.0f;
+		float bestLon = 0.0f;
+
+		while (heapSize > 0) {
+			float nodeDist = heapDists[0];
+			int treeNode = heapNodes[0];
+			// Remove heap head
+			heapSize--;
+			float lastDist = heapDists[heapSize];
+			int lastNode = heapNodes[heapSize];
+			int i = 0;
+			while (2 * i + 1 < heapSize) {
+				int child = 2 * i + 1;
+				if (child + 1 < heapSize && heapDists[child + 1] < heapDists[child]) {
+					child++;
+				}
+				if (heapDists[child] >= lastDist) {
+					break;
+				}
+				heapDists[i] = heapDists[child];
+				heapNodes[i] = heapNodes[child];
+				i = child;
+			}
+			heapDists[i] = lastDist;
+			heapNodes[i] = lastNode;
+
+			if (nodeDist >= bestDist) {
+				break;
+			}
+
+			if (treeNode < leafNodeCount) {
+				for (int iChild = childrenStart[treeNode]; iChild < childrenEnd[treeNode]; iChild++) {
+					int edge = leafEdges[iChild];
+					int from = findEdgeSource(edge);
+					int to = graph.getEdgeTarget(edge);
+					if (components != null && (!components.isInLargestComponent(from) || !components.isInLargestComponent(to))) {
+						continue;
+					}
+
+					// Segments between edge source, shape points and edge target
+					int pointsStart = (geometry != null) ? geometry.getPointsStart(edge) : 0;
+					int pointsEnd = (geometry != null) ? geometry.getPointsEnd(edge) : 0;
+					float segmentLat = graph.getNodeLat(from);
+					float segmentLon = graph.getNodeLon(from);
+					float segmentFraction = 0.0f;
+					for (int iPoint = pointsStart; iPoint <= pointsEnd; iPoint++) {
+						float nextLat = (iPoint < pointsEnd) ? geometry.getPointLat(iPoint) : graph.getNodeLat(to);
+						float nextLon = (iPoint < pointsEnd) ? geometry.getPointLon(iPoint) : graph.getNodeLon(to);
+						float nextFraction = (iPoint < pointsEnd) ? geometry.getPointFraction(iPoint) : 1.0f;
+
+						// Project onto segment in local plane with query at origin
+						double ax = (segmentLon - lon) * scaleLon;
+						double ay = (segmentLat - lat) * scaleLat;
+						double bx = (nextLon - lon) * scaleLon;
+						double by = (nextLat - lat) * scaleLat;
+						double dx = bx - ax;
+						double dy = by - ay;
+						double lengthSq = dx * dx + dy * dy;
+						double fraction = (lengthSq > 0) ? Math.min(1, Math.max(0, -(ax * dx + ay * dy) / lengthSq)) : 0;
+						double px = ax + fraction * dx;
+						double py = ay + fraction * dy;
+						double dist = Math.sqrt(px * px + py * py);
+						if (dist < bestDist) {
+							bestDist = dist;
+							bestEdge = edge;
+							bestFraction = segmentFraction + fraction * (nextFraction - segmentFraction);
+							bestLat = segmentLat + (float) fraction * (nextLat - segmentLat);
+							bestLon = segmentLon + (float) fraction * (nextLon - segmentLon);
+						}
+
+						segmentLat = nextLat;
+						segmentLon = nextLon;
+						segmentFraction = nextFraction;
+					}
+				}
+			}
+			else {
+				for (int iChild = childrenStart[treeNode]; iChild < childrenEnd[treeNode]; iChild++) {
+					int child = innerChildren[iChild];
+					double dx = Math.max(0, Math.max(boxMinLon[child] - lon, lon - boxMaxLon[child])) * scaleLon;
+					double dy = Math.max(0, Math.max(boxMinLat[child] - lat, lat - boxMaxLat[child])) * scaleLat;
+					float childDist = (float) Math.sqrt(dx * dx + dy * dy);
+					if (childDist >= bestDist) {
+						continue;
+					}
+
+					// Add to heap
+					if (heapSize == heapDists.length) {
+						heapDists = Arrays.copyOf(heapDists, heapSize * 2);
+						heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+					}
+					int j = heapSize++;
+					while (j > 0 && heapDists[(j - 1) / 2] > childDist) {
+						heapDists[j] = heapDists[(j - 1) / 2];
+						heapNodes[j] = heapNodes[(j - 1) / 2];
+						j = (j - 1) / 2;
+					}
+					heapDists[j] = childDist;
+					heapNodes[j] = child;
+				}
+			}
+		}
+
+		if (bestEdge == -1) {
+			return null;
+		}
+		return createRoutePoint(bestEdge, (float) bestFraction, bestLat, bestLon);
+	}
+
+
+	/**
+	 * @param fraction
+	 *            Position on edge as fraction of its route time
+	 */
+	private RoutePoint createRoutePoint(int edge, float fraction, float lat, float lon) {
+		int nodeA = findEdgeSource(edge);
+		int nodeB = graph.getEdgeTarget(edge);
+		if (fraction <= 0.0f) {
+			return RoutePoint.ofNode(graph, nodeA);
+		}
+		if (fraction >= 1.0f) {
+			return RoutePoint.ofNode(graph, nodeB);
+		}
+
+		int reverseEdge = graph.findEdge(nodeB, nodeA);
+		float distBA = (reverseEdge != -1) ? graph.getEdgeDist(reverseEdge) : Float.POSITIVE_INFINITY;
+		float distAB = graph.getEdgeDist(graph.findEdge(nodeA, nodeB));
+		float reverseFraction = (reverseEdge != -1) ? calcReverseFraction(edge, reverseEdge, fraction) : fraction;
+		return new RoutePoint(lat, lon, nodeA, nodeB, fraction, reverseFraction, distAB, distBA);
+	}
+
+	/**
+	 * Converts position on edge to fraction of route time of reverse edge, measured from edge source. Both directions pass the
+	 * same shape points, but can take a different part of their route time between them.
+	 */
+	private float calcReverseFraction(int edge, int reverseEdge, float fraction) {
+		if (geometry == null) {
+			return fraction;
+		}
+		int pointsStart = geometry.getPointsStart(edge);
+		int pointCount = geometry.getPointsEnd(edge) - pointsStart;
+		int reversePointsEnd = geometry.getPointsEnd(reverseEdge);
+		if (reversePointsEnd - geometry.getPointsStart(reverseEdge) != pointCount) {
+			return fraction;
+		}
+
+		float segmentFraction = 0.0f;
+		float segmentReverseFraction = 0.0f;
+		for (int i = 0; i <= pointCount; i++) {
+			float nextFraction = (i < pointCount) ? geometry.getPointFraction(pointsStart + i) : 1.0f;
+			// Reverse edge stores points from edge target to source
+			float nextReverseFraction = (i < pointCount) ? 1.0f - geometry.getPointFraction(reversePointsEnd - 1 - i) : 1.0f;
+			if (fraction <= nextFraction) {
+				float t = (nextFraction > segmentFraction) ? (fraction - segmentFraction) / (nextFraction - segmentFraction) : 0.0f;
+				return segmentReverseFraction + t * (nextReverseFraction - segmentReverseFraction);
+			}
+			segmentFraction = nextFraction;
+			segmentReverseFraction = nextReverseFraction;
+		}
+		return fraction;
+	}
+}
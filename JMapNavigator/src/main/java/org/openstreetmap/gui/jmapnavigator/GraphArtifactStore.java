@@ -0,0 +1,203 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Stores data derived from a route graph (hierarchies, landmarks, indexes) in artifact files next to the graph file. Each
+ * artifact file has a header with format version, artifact version and checksum of the graph it was built from. Artifacts
+ * which are missing or do not match the loaded graph are rebuilt in background and saved again.
+ */
+@SuppressWarnings("javadoc")
+public class GraphArtifactStore {
+
+	private static final int ARTIFACT_MAGIC = 0x4A4D4E41; // "JMNA"
+	private static final int ARTIFACT_FORMAT_VERSION = 1;
+	private static final String ARTIFACT_FILE_SUFFIX = ".artifact";
+
+	/**
+	 * Reads and writes artifact content, after the header
+	 */
+	public interface ArtifactCodec<T> {
+
+		void write(T artifact, DataOutputStream out) throws IOException;
+
+		T read(DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * Builds artifact from graph if not available
+	 */
+	public interface ArtifactBuilder<T> {
+
+		T build(RouteGraph graph);
+	}
+
+	/**
+	 * Notified when artifact is available
+	 */
+	public interface ArtifactListener<T> {
+
+		void artifactReady(T artifact);
+	}
+
+
+	private final RouteGraph graph;
+	private final File artifactDir;
+	private final ExecutorService artifactExecutor;
+
+
+	/**
+	 * @param graph
+	 *            Graph artifacts are derived from
+	 * @param artifactDir
+	 *            Directory to store artifact files in
+	 */
+	public GraphArtifactStore(RouteGraph graph, File artifactDir) {
+		this.graph = graph;
+		this.artifactDir = artifactDir;
+		this.artifactExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "GraphArtifactThread");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+	public File getArtifactFile(String name) {
+		return new File(artifactDir, name + ARTIFACT_FILE_SUFFIX);
+	}
+
+
+	/**
+	 * Loads artifact if a file matching graph and version exists
+	 *
+	 * @return Artifact or null if missing or stale
+	 */
+	public <T> T load(String name, int version, ArtifactCodec<T> codec) {
+		File file = getArtifactFile(name);
+		if (!file.exists()) {
+			System.out.println("No artifact " + name);
+			return null;
+		}
+
+		long startTime = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != ARTIFACT_MAGIC || in.readInt() != ARTIFACT_FORMAT_VERSION) {
+				System.out.println("Artifact " + name + " has unknown format");
+				return null;
+			}
+			if (!name.equals(in.readUTF()) || in.readInt() != version) {
+				System.out.println("Artifact " + name + " has outdated version");
+				return null;
+			}
+			if (in.readLong() != graph.getChecksum()) {
+				System.out.println("Artifact " + name + " was built for other graph");
+				return null;
+			}
+
+			T artifact = codec.read(in);
+			System.out.println("Loaded artifact " + name + " after " + (System.currentTimeMillis() - startTime) + "ms");
+			return artifact;
+		}
+		catch (IOException e) {
+			System.err.println("Error at loading artifact " + name);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+
+	/**
+	 * Saves artifact, replaces existing file only after writing succeeded
+	 */
+	public <T> void save(String name, int version, T artifact, ArtifactCodec<T> codec) throws IOException {
+		File file = getArtifactFile(name);
+		File tmpFile = new File(artifactDir, name + ARTIFACT_FILE_SUFFIX + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(ARTIFACT_MAGIC);
+			out.writeInt(ARTIFACT_FORMAT_VERSION);
+			out.writeUTF(name);
+			out.writeInt(version);
+			out.writeLong(graph.getChecksum());
+			codec.write(artifact, out);
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Saved artifact " + name);
+	}
+
+
+	/**
+	 * Loads artifact in background, builds and saves it if missing or stale. Listener is called from background thread.
+	 */
+	public <T> void loadOrBuildAsync(final String name, final int version, final ArtifactCodec<T> codec,
+			final ArtifactBuilder<T> builder, final ArtifactListener<T> listener) {
+		artifactExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				T artifact = load(name, version, codec);
+				if (artifact == null) {
+					System.out.println("Start building artifact " + name);
+					artifact = builder.build(graph);
+					try {
+						save(name, version, artifact, codec);
+					}
+					catch (IOException e) {
+						System.err.println("Error at saving artifact " + name);
+						e.printStackTrace();
+					}
+				}
+				listener.artifactReady(artifact);
+			}
+		});
+	}
+
+
+
+	public static void writeIntArray(int[] array, DataOutputStream out) throws IOException {
+		out.writeInt(array.length);
+		for (int value : array) {
+			out.writeInt(value);
+		}
+	}
+
+	public static int[] readIntArray(DataInputStream in) throws IOException {
+		int[] array = new int[in.readInt()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = in.readInt();
+		}
+		return array;
+	}
+
+	public static void writeFloatArray(float[] array, DataOutputStream out) throws IOException {
+		out.writeInt(array.length);
+		for (float value : array) {
+			out.writeFloat(value);
+		}
+	}
+
+	public static float[] readFloatArray(DataInputStream in) throws IOException {
+		float[] array = new float[in.readInt()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = in.readFloat();
+		}
+		return array;
+	}
+}
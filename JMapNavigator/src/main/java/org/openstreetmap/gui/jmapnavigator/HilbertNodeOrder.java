@@ -0,0 +1,156 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Arrays;
+
+
+/**
+ * Renumbers graph nodes along a Hilbert curve over their coordinates. Nodes close to each other on the map get close indices,
+ * so searches touch fewer cache lines than with the arbitrary OSM order of graph.bin. Node IDs move with their nodes and stay
+ * the mapping to the original graph.
+ * <p>
+ * Node indices of a reordered graph differ from the original, so it gets a derived checksum and artifacts are built for it
+ * separately.
+ */
+@SuppressWarnings("javadoc")
+public class HilbertNodeOrder {
+
+	// Bits per coordinate of Hilbert curve grid
+	private static final int CURVE_BITS = 16;
+	// Changes checksums of reordered graphs if the order changes
+	private static final int ORDER_VERSION = 2;
+
+
+
+	/**
+	 * @return Graph with nodes in Hilbert curve order, same node IDs, coordinates and edges
+	 */
+	public static RouteGraph reorder(RouteGraph graph) {
+		System.out.println("Start reordering graph nodes");
+		long startTime = System.currentTimeMillis();
+
+		int[] newToOld = calcOrder(graph);
+		int nodeCount = graph.getNodeCount();
+		int[] oldToNew = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			oldToNew[newToOld[i]] = i;
+		}
+
+		int[] nodeIds = new int[nodeCount];
+		float[] nodesLat = new float[nodeCount];
+		float[] nodesLon = new float[nodeCount];
+		int[] edgeOffsets = new int[nodeCount + 1];
+		int[] edgeTargets = new int[graph.getEdgeCount()];
+		float[] edgeDists = new float[graph.getEdgeCount()];
+		int edgeCount = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			int oldNode = newToOld[i];
+			nodeIds[i] = graph.getNodeId(oldNode);
+			nodesLat[i] = graph.getNodeLat(oldNode);
+			nodesLon[i] = graph.getNodeLon(oldNode);
+			int edgesEnd = graph.getEdgesEnd(oldNode);
+			for (int iEdge = graph.getEdgesStart(oldNode); iEdge < edgesEnd; iEdge++) {
+				edgeTargets[edgeCount] = oldToNew[graph.getEdgeTarget(iEdge)];
+				edgeDists[edgeCount] = graph.getEdgeDist(iEdge);
+				edgeCount++;
+			}
+			edgeOffsets[i + 1] = edgeCount;
+		}
+
+		long checksum = RouteGraph.deriveChecksum(graph.getChecksum(), "hilbert" + ORDER_VERSION);
+		RouteGraph reordered = new RouteGraph(checksum, nodeIds, nodesLat, nodesLon, edgeOffsets, edgeTargets, edgeDists);
+		System.out.println("Finished reordering graph nodes after " + (System.currentTimeMillis() - startTime) + "ms");
+		return reordered;
+	}
+
+	/**
+	 * @return Old node index for each new node index, sorted by Hilbert curve index
+	 */
+	public static int[] calcOrder(RouteGraph graph) {
+		int nodeCount = graph.getNodeCount();
+		float minLat = Float.POSITIVE_INFINITY;
+		float maxLat = Float.NEGATIVE_INFINITY;
+		float minLon = Float.POSITIVE_INFINITY;
+		float maxLon = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < nodeCount; i++) {
+			minLat = Math.min(minLat, graph.getNodeLat(i));
+			maxLat = Math.max(maxLat, graph.getNodeLat(i));
+			minLon = Math.min(minLon, graph.getNodeLon(i));
+			maxLon = Math.max(maxLon, graph.getNodeLon(i));
+		}
+
+		// Sort by curve index in upper and node index in lower half, keeps order of nodes at same position. Curve indices use all
+		// 32 bits, sign bit is flipped so signed sorting gives unsigned order.
+		int gridMax = (1 << CURVE_BITS) - 1;
+		double latScale = (maxLat > minLat) ? gridMax / (double) (maxLat - minLat) : 0.0;
+		double lonScale = (maxLon > minLon) ? gridMax / (double) (maxLon - minLon) : 0.0;
+		long[] keys = new long[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			int x = (int) ((graph.getNodeLon(i) - minLon) * lonScale);
+			int y = (int) ((graph.getNodeLat(i) - minLat) * latScale);
+			keys[i] = ((calcHilbertIndex(x, y) << 32) | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(keys);
+
+		int[] newToOld = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			newToOld[i] = (int) keys[i];
+		}
+		return newToOld;
+	}
+
+	/**
+	 * @return Index of grid cell x, y on Hilbert curve through grid of 2^CURVE_BITS cells per side
+	 */
+	static long calcHilbertIndex(int x, int y) {
+		int n = 1 << CURVE_BITS;
+		long d = 0;
+		for (int s = n >>> 1; s > 0; s >>>= 1) {
+			int rx = ((x & s) != 0) ? 1 : 0;
+			int ry = ((y & s) != 0) ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// Rotate quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int tmp = x;
+				x = y;
+				y = tmp;
+			}
+		}
+		return d;
+	}
+
+
+
+	/**
+	 * Benchmark: Runs the same random queries on graph.bin in original and in Hilbert order and compares query times
+	 *
+	 * @param args
+	 *            [queries]
+	 */
+	public static void main(String[] args) throws Exception {
+		int queryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+
+		RouteBenchmark.run(createBenchmarkVariants(), ParallelGraphLoader.load(RouteGraph.GRAPH_FILE), queryCount,
+				RouteBenchmark.ROUTE_TIME_TOLERANCE);
+	}
+
+	/**
+	 * @return Dijkstra and bidirectional Dijkstra on graph in original and in Hilbert order
+	 */
+	static RouteBenchmark.VariantFactory createBenchmarkVariants() {
+		return new RouteBenchmark.VariantFactory() {
+
+			@Override
+			public RouteBenchmark.Variant[] createVariants(RouteGraph graph) {
+				RouteGraph reordered = reorder(graph);
+				return new RouteBenchmark.Variant[] { new RouteBenchmark.DijkstraVariant("Original order, Dijkstra", graph),
+						new RouteBenchmark.BidirectionalVariant("Original order, bidirectional Dijkstra", graph),
+						new RouteBenchmark.DijkstraVariant("Hilbert order, Dijkstra", reordered),
+						new RouteBenchmark.BidirectionalVariant("Hilbert order, bidirectional Dijkstra", reordered) };
+			}
+		};
+	}
+}
@@ -0,0 +1,53 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+
+/**
+ * Priority queue of map nodes by route time, as used by the Dijkstra based searches. Each node is at most once in the queue.
+ */
+@SuppressWarnings("javadoc")
+public interface INodeQueue {
+
+	/**
+	 * Available queue implementations
+	 */
+	public enum Type {
+		/** Indexed binary heap, {@link NodeDistHeap} */
+		BinaryHeap,
+		/** Radix heap for monotone searches, {@link RadixNodeQueue} */
+		Radix
+	}
+
+
+	/**
+	 * Removes all nodes
+	 */
+	void resetEmpty();
+
+	/**
+	 * Adds a node which is not in the queue
+	 */
+	void add(int nodeIndex, float value);
+
+	/**
+	 * Decreases value of node if it is in the queue and new value is smaller
+	 *
+	 * @return True if value was decreased
+	 */
+	boolean decreaseKeyIfSmaller(int nodeIndex, float newValue);
+
+	boolean isEmpty();
+
+	int getSize();
+
+	/**
+	 * @return Smallest value in queue, queue must not be empty
+	 */
+	float peekNodeValue();
+
+	/**
+	 * Removes node with smallest value, queue must not be empty
+	 *
+	 * @return Index of removed node
+	 */
+	int removeFirst();
+}
@@ -1,6 +1,7 @@
 package org.openstreetmap.gui.jmapnavigator;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.openstreetmap.gui.jmapviewer.Coordinate;
 
@@ -17,9 +18,13 @@ public interface IRouteSolver {
 		NotReady, Standby, Routing
 	}
 
-	void setStartNode(long nodeGridIndex);
+	void setStartNode(int nodeGridIndex);
 
-	void setTargetNode(long nodeGridIndex);
+	void setTargetNode(int nodeGridIndex);
+
+	void setStartPoint(RoutePoint point);
+
+	void setTargetPoint(RoutePoint point);
 
 	Coordinate getStartCoordinate();
 
@@ -31,14 +36,32 @@ public interface IRouteSolver {
 
 	List<Coordinate> getCalculatedRoute();
 
-	boolean getNeedsDispalyRefresh();
+	/**
+	 * Sets listener notified when start, target, routing preview or calculated route changed. Called from any thread.
+	 */
+	void setDisplayRefreshListener(Runnable listener);
 
-	void resetNeedsDispalyRefresh();
+	Integer findNextNode(float lat, float lon);
 
-	Long findNextNode(float lat, float lon);
+	RoutePoint snapToRoad(float lat, float lon);
 
+	/**
+	 * Calculates route asynchronously, independent from start, target and route of this solver
+	 *
+	 * @return Future result, completed in routing thread
+	 */
+	CompletableFuture<RouteResult> calculateRoute(RoutePoint start, RoutePoint target, RouteOptions options);
+
+	/**
+	 * Calculates route from current start to target asynchronously, result is available by getCalculatedRoute afterwards
+	 */
 	void startCalculateRoute();
 
+	/**
+	 * Cancels route calculation started by startCalculateRoute if still running
+	 */
+	void cancelCalculateRoute();
+
 	Coordinate getBestCandidateCoords();
 
 	float getTimeOfRoute();
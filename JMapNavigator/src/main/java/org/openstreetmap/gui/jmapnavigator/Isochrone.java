@@ -0,0 +1,91 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.List;
+
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+
+
+/**
+ * Nodes reachable from a start point within a time budget, calculated by an {@link IsochroneCalculator}. The outline are closed
+ * rings around the raster cells touched by reachable roads and the areas enclosed by them, they can be displayed as polygons.
+ */
+@SuppressWarnings("javadoc")
+public final class Isochrone {
+
+	private final RoutePoint startPoint;
+	private final float timeBudget;
+	private final int[] nodes;
+	private final float[] routeTimes;
+	private final List<List<Coordinate>> outline;
+	private final long calculationTime;
+
+
+
+	/**
+	 * @param nodes
+	 *            Reachable nodes, ordered by route time. Not copied.
+	 * @param routeTimes
+	 *            Route time to each node in seconds. Not copied.
+	 * @param outline
+	 *            Closed rings around reachable area
+	 * @param calculationTime
+	 *            Time to calculate isochrone in milliseconds
+	 */
+	public Isochrone(RoutePoint startPoint, float timeBudget, int[] nodes, float[] routeTimes, List<List<Coordinate>> outline,
+			long calculationTime) {
+		this.startPoint = startPoint;
+		this.timeBudget = timeBudget;
+		this.nodes = nodes;
+		this.routeTimes = routeTimes;
+		this.outline = outline;
+		this.calculationTime = calculationTime;
+	}
+
+
+	public RoutePoint getStartPoint() {
+		return startPoint;
+	}
+
+	/**
+	 * @return Maximum route time in seconds
+	 */
+	public float getTimeBudget() {
+		return timeBudget;
+	}
+
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	public int getNode(int i) {
+		return nodes[i];
+	}
+
+	/**
+	 * @return Route time to reachable node i in seconds
+	 */
+	public float getRouteTime(int i) {
+		return routeTimes[i];
+	}
+
+	/**
+	 * @return Closed rings around the reachable area, first and last coordinate of a ring are equal
+	 */
+	public List<List<Coordinate>> getOutline() {
+		return outline;
+	}
+
+	/**
+	 * @return Time to calculate isochrone in milliseconds
+	 */
+	public long getCalculationTime() {
+		return calculationTime;
+	}
+
+
+	@Override
+	public String toString() {
+		return "Isochrone " + startPoint + " within " + timeBudget + "s: " + nodes.length + " nodes, " + outline.size()
+				+ " outline rings, " + calculationTime + "ms";
+	}
+}
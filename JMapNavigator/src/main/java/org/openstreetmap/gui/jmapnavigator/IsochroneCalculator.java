@@ -0,0 +1,421 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Calculates isochrones: All nodes reachable from a start point within a time budget. Runs a Dijkstra with the edge weights of
+ * the route solvers on a pooled {@link SearchContext}, which stops at the budget. Reachable roads, including the reachable part
+ * of roads leaving the area, are rasterized. Holes in the raster are filled and its outline is traced to closed rings.
+ */
+@SuppressWarnings("javadoc")
+public class IsochroneCalculator {
+
+	public static final float DEFAULT_CELL_SIZE = 250.0f;
+	// Cells are enlarged if the raster would get larger
+	private static final int MAX_RASTER_CELLS = 1 << 22;
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	private final RoutingService routingService;
+	private final RouteGraph graph;
+
+
+
+	public IsochroneCalculator(RoutingService routingService) {
+		this.routingService = routingService;
+		this.graph = routingService.getGraph();
+	}
+
+
+
+	/**
+	 * Calculates isochrone with outline raster of default cell size
+	 *
+	 * @param timeBudget
+	 *            Maximum route time in seconds
+	 */
+	public Isochrone calculate(RoutePoint startPoint, float timeBudget) {
+		return calculate(startPoint, timeBudget, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param timeBudget
+	 *            Maximum route time in seconds
+	 * @param cellSize
+	 *            Edge length of outline raster cells in meters
+	 */
+	public Isochrone calculate(RoutePoint startPoint, float timeBudget, float cellSize) {
+		return calculate(startPoint, timeBudget, cellSize, null);
+	}
+
+	/**
+	 * Calculates isochrone with outline raster of default cell size on a routing thread. Cancelling the future stops the search.
+	 *
+	 * @param timeBudget
+	 *            Maximum route time in seconds
+	 * @return Future isochrone, completed exceptionally with a RejectedExecutionException if too many queries are waiting
+	 */
+	public CompletableFuture<Isochrone> submit(final RoutePoint startPoint, final float timeBudget) {
+		return routingService.submit(new RoutingService.RoutingTask<Isochrone>() {
+
+			@Override
+			public Isochrone run(Future<?> query) {
+				return calculate(startPoint, timeBudget, DEFAULT_CELL_SIZE, query);
+			}
+		});
+	}
+
+	/**
+	 * @param query
+	 *            Search stops with a CancellationException when cancelled, null if not cancellable
+	 */
+	private Isochrone calculate(RoutePoint startPoint, float timeBudget, float cellSize, Future<?> query) {
+		long startTime = System.currentTimeMillis();
+
+		SearchContext context = routingService.acquireContext();
+		try {
+			context.init(startPoint, null, RouteOptions.DEFAULT, query);
+			INodeQueue heap = context.forwardHeap;
+			SearchTree tree = context.forwardTree;
+			RouteGraph.EdgeCursor edges = context.forwardEdges;
+			for (int i = 0; i < startPoint.getNodeCount(); i++) {
+				float startCost = startPoint.getStartCost(i);
+				if (startCost > timeBudget) continue;
+				heap.add(startPoint.getNode(i), startCost);
+				tree.setDist(startPoint.getNode(i), -1, startCost);
+			}
+
+			// Bounded Dijkstra, all settled nodes are reachable within budget
+			while (!heap.isEmpty() && heap.peekNodeValue() <= timeBudget) {
+				if (context.shouldStop()) {
+					throw new CancellationException("Isochrone calculation cancelled");
+				}
+				int node = heap.removeFirst();
+				float nodeDist = tree.getDist(node);
+				tree.settle(node);
+
+				edges.reset(node);
+				while (edges.next()) {
+					int edgeNode = edges.getTarget();
+					if (tree.isSettled(edgeNode)) continue;
+
+					float dist = nodeDist + edges.getDist();
+					if (dist > timeBudget) continue;
+					if (!tree.isDiscovered(edgeNode)) {
+						heap.add(edgeNode, dist);
+						tree.setDist(edgeNode, node, dist);
+					}
+					else if (heap.decreaseKeyIfSmaller(edgeNode, dist)) {
+						tree.setDist(edgeNode, node, dist);
+					}
+				}
+			}
+
+			int[] nodes = new int[tree.getSettledNodeCount()];
+			float[] routeTimes = new float[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = tree.getSettledNode(i);
+				routeTimes[i] = tree.getDist(nodes[i]);
+			}
+
+			List<List<Coordinate>> outline = traceOutline(startPoint, tree, nodes, timeBudget, cellSize);
+			return new Isochrone(startPoint, timeBudget, nodes, routeTimes, outline, System.currentTimeMillis() - startTime);
+		}
+		finally {
+			routingService.releaseContext(context);
+		}
+	}
+
+
+	/**
+	 * Rasterizes reachable roads and traces the outline of the raster
+	 */
+	private List<List<Coordinate>> traceOutline(RoutePoint startPoint, SearchTree tree, int[] nodes, float timeBudget,
+			float cellSize) {
+		if (nodes.length == 0) {
+			return Collections.emptyList();
+		}
+
+		// Raster covering roads leaving reachable nodes with two cells margin
+		EdgeGeometry geometry = graph.getEdgeGeometry();
+		RouteGraph.EdgeCursor edges = graph.createEdgeCursor(false);
+		float minLat = startPoint.Lat;
+		float maxLat = startPoint.Lat;
+		float minLon = startPoint.Lon;
+		float maxLon = startPoint.Lon;
+		for (int node : nodes) {
+			edges.reset(node);
+			while (edges.next()) {
+				int edgeNode = edges.getTarget();
+				int i = edges.getEdge();
+				minLat = Math.min(minLat, graph.getNodeLat(edgeNode));
+				maxLat = Math.max(maxLat, graph.getNodeLat(edgeNode));
+				minLon = Math.min(minLon, graph.getNodeLon(edgeNode));
+				maxLon = Math.max(maxLon, graph.getNodeLon(edgeNode));
+				if (geometry != null) {
+					for (int iPoint = geometry.getPointsStart(i); iPoint < geometry.getPointsEnd(i); iPoint++) {
+						minLat = Math.min(minLat, geometry.getPointLat(iPoint));
+						maxLat = Math.max(maxLat, geometry.getPointLat(iPoint));
+						minLon = Math.min(minLon, geometry.getPointLon(iPoint));
+						maxLon = Math.max(maxLon, geometry.getPointLon(iPoint));
+					}
+				}
+			}
+			minLat = Math.min(minLat, graph.getNodeLat(node));
+			maxLat = Math.max(maxLat, graph.getNodeLat(node));
+			minLon = Math.min(minLon, graph.getNodeLon(node));
+			maxLon = Math.max(maxLon, graph.getNodeLon(node));
+		}
+		double cellLat = cellSize / METERS_PER_DEGREE;
+		double cellLon = cellSize / (METERS_PER_DEGREE * Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+		while ((long) ((maxLat - minLat) / cellLat + 5) * (long) ((maxLon - minLon) / cellLon + 5) > MAX_RASTER_CELLS) {
+			cellLat *= 2;
+			cellLon *= 2;
+		}
+		Raster raster = new Raster(minLat - 2 * cellLat, minLon - 2 * cellLon, cellLat, cellLon,
+				(int) ((maxLat - minLat) / cellLat) + 5, (int) ((maxLon - minLon) / cellLon) + 5);
+
+		raster.mark(startPoint.Lat, startPoint.Lon);
+		for (int node : nodes) {
+			float nodeLat = graph.getNodeLat(node);
+			float nodeLon = graph.getNodeLon(node);
+			raster.mark(nodeLat, nodeLon);
+
+			// Reachable part of outgoing roads
+			float nodeDist = tree.getDist(node);
+			edges.reset(node);
+			while (edges.next()) {
+				float reachable = calcReachableFraction(nodeDist, edges.getDist(), timeBudget);
+				markEdge(raster, geometry, node, edges.getEdge(), edges.getTarget(), reachable);
+			}
+		}
+
+		raster.fillHoles();
+		return raster.traceOutline();
+	}
+
+
+	/**
+	 * Marks reachable part of an edge, along its shape points if it has any
+	 *
+	 * @param reachable
+	 *            Reachable fraction of edge route time
+	 */
+	private void markEdge(Raster raster, EdgeGeometry geometry, int node, int edge, int edgeNode, float reachable) {
+		int pointsStart = (geometry != null) ? geometry.getPointsStart(edge) : 0;
+		int pointsEnd = (geometry != null) ? geometry.getPointsEnd(edge) : 0;
+
+		// Segments between edge source, shape points and edge target
+		float segmentLat = graph.getNodeLat(node);
+		float segmentLon = graph.getNodeLon(node);
+		float segmentFraction = 0.0f;
+		for (int iPoint = pointsStart; iPoint <= pointsEnd && segmentFraction < reachable; iPoint++) {
+			float nextLat = (iPoint < pointsEnd) ? geometry.getPointLat(iPoint) : graph.getNodeLat(edgeNode);
+			float nextLon = (iPoint < pointsEnd) ? geometry.getPointLon(iPoint) : graph.getNodeLon(edgeNode);
+			float nextFraction = (iPoint < pointsEnd) ? geometry.getPointFraction(iPoint) : 1.0f;
+
+			float segmentReachable = (nextFraction > segmentFraction)
+					? Math.min(1.0f, (reachable - segmentFraction) / (nextFraction - segmentFraction)) : 1.0f;
+			raster.markLine(segmentLat, segmentLon, nextLat, nextLon, segmentReachable);
+
+			segmentLat = nextLat;
+			segmentLon = nextLon;
+			segmentFraction = nextFraction;
+		}
+	}
+
+	/**
+	 * @return Part of an edge reachable within budget from a node reached after nodeDist
+	 */
+	private static float calcReachableFraction(float nodeDist, float edgeDist, float timeBudget) {
+		return (edgeDist > 0.0f) ? Math.min(1.0f, (timeBudget - nodeDist) / edgeDist) : 1.0f;
+	}
+
+
+	/**
+	 * Grid of cells marked as reachable. Cell (x, y) covers longitudes from originLon + x * cellLon and latitudes from originLat
+	 * + y * cellLat.
+	 */
+	private static class Raster {
+
+		private final double originLat;
+		private final double originLon;
+		private final double cellLat;
+		private final double cellLon;
+		private final int height;
+		private final int width;
+		private final boolean[] cells;
+
+
+		Raster(double originLat, double originLon, double cellLat, double cellLon, int height, int width) {
+			this.originLat = originLat;
+			this.originLon = originLon;
+			this.cellLat = cellLat;
+			this.cellLon = cellLon;
+			this.height = height;
+			this.width = width;
+			this.cells = new boolean[width * height];
+		}
+
+
+		void mark(double lat, double lon) {
+			int x = (int) ((lon - originLon) / cellLon);
+			int y = (int) ((lat - originLat) / cellLat);
+			if (x >= 0 && x < width && y >= 0 && y < height) {
+				cells[y * width + x] = true;
+			}
+		}
+
+		/**
+		 * Marks cells along a line from point 1 to point 2 up to a fraction of its length, sampled twice per cell
+		 */
+		void markLine(double lat1, double lon1, double lat2, double lon2, float fraction) {
+			double cellsCrossed = Math.max(Math.abs(lat2 - lat1) / cellLat, Math.abs(lon2 - lon1) / cellLon) * fraction;
+			int steps = (int) Math.ceil(cellsCrossed * 2);
+			for (int i = 1; i <= steps; i++) {
+				double t = fraction * i / steps;
+				mark(lat1 + (lat2 - lat1) * t, lon1 + (lon2 - lon1) * t);
+			}
+		}
+
+		private boolean isMarked(int x, int y) {
+			return x >= 0 && x < width && y >= 0 && y < height && cells[y * width + x];
+		}
+
+
+		/**
+		 * Marks all unmarked cells not connected to the raster border, areas between reachable roads are reachable as well
+		 */
+		void fillHoles() {
+			boolean[] outside = new boolean[cells.length];
+			IntArrayList queue = new IntArrayList();
+			for (int x = 0; x < width; x++) {
+				addOutside(x, 0, outside, queue);
+				addOutside(x, height - 1, outside, queue);
+			}
+			for (int y = 0; y < height; y++) {
+				addOutside(0, y, outside, queue);
+				addOutside(width - 1, y, outside, queue);
+			}
+			while (!queue.isEmpty()) {
+				int cell = queue.popInt();
+				int x = cell % width;
+				int y = cell / width;
+				addOutside(x - 1, y, outside, queue);
+				addOutside(x + 1, y, outside, queue);
+				addOutside(x, y - 1, outside, queue);
+				addOutside(x, y + 1, outside, queue);
+			}
+
+			for (int i = 0; i < cells.length; i++) {
+				if (!outside[i]) {
+					cells[i] = true;
+				}
+			}
+		}
+
+		private void addOutside(int x, int y, boolean[] outside, IntArrayList queue) {
+			if (x < 0 || x >= width || y < 0 || y >= height) {
+				return;
+			}
+			int cell = y * width + x;
+			if (!cells[cell] && !outside[cell]) {
+				outside[cell] = true;
+				queue.add(cell);
+			}
+		}
+
+
+		/**
+		 * Traces boundaries between marked and unmarked cells. Boundary segments run counterclockwise around marked cells and
+		 * are chained to closed rings running counterclockwise.
+		 */
+		List<List<Coordinate>> traceOutline() {
+			// Outgoing boundary segments at each grid corner, two at corners only touching diagonally
+			Int2IntMap firstSegments = new Int2IntOpenHashMap();
+			Int2IntMap secondSegments = new Int2IntOpenHashMap();
+			firstSegments.defaultReturnValue(-1);
+			secondSegments.defaultReturnValue(-1);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (!isMarked(x, y)) continue;
+					if (!isMarked(x, y - 1)) addSegment(firstSegments, secondSegments, corner(x, y), corner(x + 1, y));
+					if (!isMarked(x + 1, y)) addSegment(firstSegments, secondSegments, corner(x + 1, y), corner(x + 1, y + 1));
+					if (!isMarked(x, y + 1)) addSegment(firstSegments, secondSegments, corner(x + 1, y + 1), corner(x, y + 1));
+					if (!isMarked(x - 1, y)) addSegment(firstSegments, secondSegments, corner(x, y + 1), corner(x, y));
+				}
+			}
+
+			List<List<Coordinate>> rings = new ArrayList<>();
+			while (!firstSegments.isEmpty()) {
+				int ringStart = firstSegments.keySet().iterator().nextInt();
+				List<Coordinate> ring = new ArrayList<>();
+				int corner = ringStart;
+				int lastDx = 0;
+				int lastDy = 0;
+				do {
+					int next = takeSegment(firstSegments, secondSegments, corner);
+					if (next == -1) {
+						// Cannot happen, each corner has as many incoming as outgoing segments
+						throw new IllegalStateException("Open isochrone outline at corner " + corner);
+					}
+					int dx = cornerX(next) - cornerX(corner);
+					int dy = cornerY(next) - cornerY(corner);
+					// Only keep corners where direction changes
+					if (dx != lastDx || dy != lastDy) {
+						ring.add(cornerCoordinate(corner));
+					}
+					lastDx = dx;
+					lastDy = dy;
+					corner = next;
+				} while (corner != ringStart);
+				ring.add(ring.get(0));
+				rings.add(ring);
+			}
+			return rings;
+		}
+
+		private static void addSegment(Int2IntMap firstSegments, Int2IntMap secondSegments, int from, int to) {
+			if (firstSegments.containsKey(from)) {
+				secondSegments.put(from, to);
+			}
+			else {
+				firstSegments.put(from, to);
+			}
+		}
+
+		private static int takeSegment(Int2IntMap firstSegments, Int2IntMap secondSegments, int from) {
+			if (secondSegments.containsKey(from)) {
+				return secondSegments.remove(from);
+			}
+			return firstSegments.remove(from);
+		}
+
+		private int corner(int x, int y) {
+			return y * (width + 1) + x;
+		}
+
+		private int cornerX(int corner) {
+			return corner % (width + 1);
+		}
+
+		private int cornerY(int corner) {
+			return corner / (width + 1);
+		}
+
+		private Coordinate cornerCoordinate(int corner) {
+			return new Coordinate(originLat + cornerY(corner) * cellLat, originLon + cornerX(corner) * cellLon);
+		}
+	}
+}
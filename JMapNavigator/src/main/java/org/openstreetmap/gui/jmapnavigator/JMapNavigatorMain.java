@@ -13,6 +13,10 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -20,7 +24,7 @@ import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 
 import org.openstreetmap.gui.jmapnavigator.IRouteSolver.RoutingState;
 import org.openstreetmap.gui.jmapviewer.Coordinate;
@@ -59,6 +63,8 @@ public class JMapNavigatorMain extends JFrame implements JMapViewerEventListener
 	private final JLabel routeTimeLabel;
 
 	private static final int MAX_ROUTE_PREVIEW_DOTS = 50;
+	// Route time of displayed isochrone in seconds
+	private static final float ISOCHRONE_TIME_BUDGET = 30 * 60;
 
 
 
@@ -307,6 +313,28 @@ public class JMapNavigatorMain extends JFrame implements JMapViewerEventListener
 		});
 		panelBottom.add(buttonCalcManiacShort);
 
+		JComboBox<IRouteSolver> routeSolverSelector = new JComboBox<>(mapController.getRouteSolvers());
+		routeSolverSelector.addItemListener(new ItemListener() {
+
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				if (e.getStateChange() == ItemEvent.SELECTED) {
+					mapController.setRouteSolver((IRouteSolver) e.getItem());
+				}
+			}
+		});
+		panelBottom.add(routeSolverSelector);
+
+		JButton buttonIsochrone = new JButton("Isochrone 30 min");
+		buttonIsochrone.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				showIsochrone(ISOCHRONE_TIME_BUDGET);
+			}
+		});
+		panelBottom.add(buttonIsochrone);
+
 		add(treeMap, BorderLayout.CENTER);
 
 		//map().addMapMarker(new MapMarkerDot("A", new Coordinate(48.68, 9.00)));
@@ -339,23 +367,93 @@ public class JMapNavigatorMain extends JFrame implements JMapViewerEventListener
 		});
 
 
-		// Poll timer
-		Timer timer = new Timer(500, new ActionListener() {
+		// Refresh display when notified by route solvers, at most one refresh queued at a time
+		final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+		final Runnable refreshRunnable = new Runnable() {
 
 			@Override
-			public void actionPerformed(ActionEvent e) {
-				if (mapController.getRouteSolver().getRoutingState() == RoutingState.Routing
-						|| mapController.getRouteSolver().getNeedsDispalyRefresh()) {
-					refreshRouteDisplay();
-					mapController.getRouteSolver().resetNeedsDispalyRefresh();
+			public void run() {
+				refreshQueued.set(false);
+				refreshRouteDisplay();
+			}
+		};
+		Runnable refreshListener = new Runnable() {
+
+			@Override
+			public void run() {
+				if (refreshQueued.compareAndSet(false, true)) {
+					SwingUtilities.invokeLater(refreshRunnable);
 				}
 			}
-		});
-		timer.start();
+		};
+		for (IRouteSolver solver : mapController.getRouteSolvers()) {
+			solver.setDisplayRefreshListener(refreshListener);
+		}
+		refreshListener.run();
 	}
 
 	private List<MapMarkerDot> routeDots = new ArrayList<>();
 	private List<MapPolygonImpl> routeLines = new ArrayList<>();
+	private List<MapPolygonImpl> isochroneOutline = new ArrayList<>();
+	// Running isochrone calculation, null if none. Only accessed in event dispatch thread.
+	private CompletableFuture<Isochrone> isochroneQuery;
+
+	/**
+	 * Calculates isochrone from start point on a routing thread and displays its outline. Cancels a calculation still running.
+	 */
+	private void showIsochrone(final float timeBudget) {
+		final RoutePoint startPoint = mapController.getStartPoint();
+		if (startPoint == null) {
+			System.err.println("Cannot calculate isochrone: Must select start");
+			return;
+		}
+
+		if (isochroneQuery != null) {
+			isochroneQuery.cancel(false);
+		}
+		final CompletableFuture<Isochrone> query = new IsochroneCalculator(mapController.getRoutingService()).submit(startPoint,
+				timeBudget);
+		isochroneQuery = query;
+		query.whenComplete(new BiConsumer<Isochrone, Throwable>() {
+
+			@Override
+			public void accept(final Isochrone isochrone, final Throwable error) {
+				SwingUtilities.invokeLater(new Runnable() {
+
+					@Override
+					public void run() {
+						if (isochroneQuery != query) {
+							// Replaced by a newer calculation
+							return;
+						}
+						isochroneQuery = null;
+
+						if (error instanceof CancellationException) {
+							System.out.println("Isochrone calculation cancelled");
+							return;
+						}
+						else if (error != null) {
+							System.err.println("Isochrone calculation failed");
+							error.printStackTrace();
+							return;
+						}
+						System.out.println("Calculated " + isochrone);
+
+						for (MapPolygonImpl ring : isochroneOutline) {
+							map().removeMapPolygon(ring);
+						}
+						isochroneOutline.clear();
+						for (List<Coordinate> ring : isochrone.getOutline()) {
+							MapPolygonImpl ringPoly = new MapPolygonImpl(Color.MAGENTA, ring.toArray(new Coordinate[ring.size()]));
+							ringPoly.setBackColor(null);
+							isochroneOutline.add(ringPoly);
+							map().addMapPolygon(ringPoly);
+						}
+					}
+				});
+			}
+		});
+	}
 
 	private void clearRouteDisplay() {
 		// Clear dots
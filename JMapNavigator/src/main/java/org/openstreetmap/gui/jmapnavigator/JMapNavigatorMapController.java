@@ -7,7 +7,9 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.io.File;
 
+import org.openstreetmap.gui.jmapnavigator.IRouteSolver.RoutingState;
 import org.openstreetmap.gui.jmapviewer.Coordinate;
 import org.openstreetmap.gui.jmapviewer.JMapController;
 import org.openstreetmap.gui.jmapviewer.JMapViewer;
@@ -40,7 +42,13 @@ public class JMapNavigatorMapController extends JMapController implements MouseL
 	private boolean wheelZoomEnabled = true;
 	private boolean floatClickZoomEnabled = true;
 
-	private final IRouteSolver routeSolver;
+	private final RouteGraph routeGraph;
+	private final GraphArtifactStore artifactStore;
+	private final RoutingService routingService;
+	private final IRouteSolver[] routeSolvers;
+	private IRouteSolver routeSolver;
+	private RoutePoint startPoint;
+	private RoutePoint targetPoint;
 
 
 
@@ -53,7 +61,34 @@ public class JMapNavigatorMapController extends JMapController implements MouseL
 	public JMapNavigatorMapController(JMapViewer map) {
 		super(map);
 
-		routeSolver = new DijkstraRouteSolver();
+		try {
+			// Compressed edges with quantized route times, about half the memory of the edge arrays
+			routeGraph = ChainCompression.loadOrCompress(
+					MappedGraphFile.loadOrConvert(RouteGraph.GRAPH_FILE, RouteGraph.MAPPED_GRAPH_FILE),
+					new File(RouteGraph.COMPRESSED_GRAPH_FILE)).compressEdges();
+			// Snapping and route queries need the components
+			routeGraph.getComponents();
+		}
+		catch (Exception e) {
+			System.err.println("Error at loadOsmData");
+			e.printStackTrace();
+			throw new RuntimeException(e);
+		}
+
+		artifactStore = new GraphArtifactStore(routeGraph, new File(RouteGraph.GRAPH_DATA_DIR));
+
+		routingService = new RoutingService(routeGraph);
+
+		routeSolvers = new IRouteSolver[] { new DijkstraRouteSolver(routingService), new AStarRouteSolver(routingService),
+				new BidirectionalDijkstraRouteSolver(routingService),
+				new ContractionHierarchyRouteSolver(routingService, artifactStore),
+				new ALTRouteSolver(routingService, artifactStore, Landmarks.Selection.Avoid),
+				new ALTRouteSolver(routingService, artifactStore, Landmarks.Selection.Farthest) };
+		routeSolver = routeSolvers[0];
+
+		startPoint = routeSolver.snapToRoad(47.8f, 9.0f);
+		targetPoint = routeSolver.snapToRoad(49.15f, 9.22f);
+		applyStartTarget(routeSolver);
 	}
 
 
@@ -82,17 +117,19 @@ public class JMapNavigatorMapController extends JMapController implements MouseL
 			ICoordinate clickPt = map.getPosition(e.getPoint());
 			Coordinate clickCoord = new Coordinate(clickPt.getLat(), clickPt.getLon());
 
-			Long clickNextPt = routeSolver.findNextNode((float) clickCoord.getLat(), (float) clickCoord.getLon());
+			RoutePoint clickNextPt = routeSolver.snapToRoad((float) clickCoord.getLat(), (float) clickCoord.getLon());
 			if (clickNextPt == null) {
 				System.err.println("No point found");
 				return;
 			}
 
 			if (e.getButton() == MouseEvent.BUTTON1) {
-				routeSolver.setStartNode(clickNextPt);
+				startPoint = clickNextPt;
+				routeSolver.setStartPoint(clickNextPt);
 			}
 			else if (e.getButton() == MouseEvent.BUTTON3) {
-				routeSolver.setTargetNode(clickNextPt);
+				targetPoint = clickNextPt;
+				routeSolver.setTargetPoint(clickNextPt);
 			}
 
 			//            clearMarkers();
@@ -241,10 +278,56 @@ public class JMapNavigatorMapController extends JMapController implements MouseL
 
 
 
+	public RoutingService getRoutingService() {
+		return routingService;
+	}
+
+	/**
+	 * @return Start point selected by user, snapped to road
+	 */
+	public RoutePoint getStartPoint() {
+		return startPoint;
+	}
+
 	public IRouteSolver getRouteSolver() {
 		return routeSolver;
 	}
 
+	/**
+	 * @return All available route solvers, sharing the same graph
+	 */
+	public IRouteSolver[] getRouteSolvers() {
+		return routeSolvers;
+	}
+
+	/**
+	 * Selects route solver to use, takes over current start and target. A route calculation of the previous solver is cancelled
+	 * and continued with the new solver.
+	 */
+	public void setRouteSolver(IRouteSolver routeSolver) {
+		IRouteSolver previousSolver = this.routeSolver;
+		if (previousSolver == routeSolver) {
+			return;
+		}
+		boolean wasRouting = previousSolver.getRoutingState() == RoutingState.Routing;
+		previousSolver.cancelCalculateRoute();
+
+		this.routeSolver = routeSolver;
+		applyStartTarget(routeSolver);
+		if (wasRouting) {
+			routeSolver.startCalculateRoute();
+		}
+	}
+
+	private void applyStartTarget(IRouteSolver solver) {
+		if (startPoint != null) {
+			solver.setStartPoint(startPoint);
+		}
+		if (targetPoint != null) {
+			solver.setTargetPoint(targetPoint);
+		}
+	}
+
 
 
 	//    public void calculateRouteDijkstra(TransportMode transportMode, RoutingMode routeMode) {
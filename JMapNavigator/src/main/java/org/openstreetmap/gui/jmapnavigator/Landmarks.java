@@ -0,0 +1,414 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.openstreetmap.gui.jmapnavigator.GraphArtifactStore.ArtifactBuilder;
+import org.openstreetmap.gui.jmapnavigator.GraphArtifactStore.ArtifactCodec;
+
+
+/**
+ * Landmarks for the ALT heuristic (A*, landmarks, triangle inequality). For each landmark L the route times d(L,v) from L and
+ * d(v,L) to L are stored for every node v. By triangle inequality d(L,t) - d(L,v) and d(v,L) - d(t,L) are lower bounds of the
+ * route time from v to t.
+ * <p>
+ * Tables are stored node-major in two float arrays, so the distances of all landmarks to a node are next to each other. Unlike a
+ * contraction hierarchy the bounds stay valid if edge weights increase, and recomputing them only takes one search per landmark
+ * and direction.
+ */
+@SuppressWarnings("javadoc")
+public class Landmarks {
+
+	/**
+	 * Strategy to select landmarks
+	 */
+	public enum Selection {
+		// Next landmark is the node farthest from all landmarks selected so far
+		Farthest,
+		// Next landmark is a leaf of a shortest path tree in the region with the worst bounds so far
+		Avoid
+	}
+
+	public static final int ARTIFACT_VERSION = 1;
+	public static final int LANDMARK_COUNT = 16;
+	// Landmarks used by one query, chosen by the bound they give for start and target
+	public static final int ACTIVE_LANDMARK_COUNT = 4;
+	// Random roots tried to find a root reaching most of the graph
+	private static final int ROOT_CANDIDATES = 8;
+	private static final long SELECTION_SEED = 123;
+
+
+	/**
+	 * @return Name of the artifact with landmarks of the given selection
+	 */
+	public static String getArtifactName(Selection selection) {
+		return "landmarks_" + selection.name().toLowerCase();
+	}
+
+	/**
+	 * Codec to store landmarks in a {@link GraphArtifactStore}
+	 */
+	public static final ArtifactCodec<Landmarks> ARTIFACT_CODEC = new ArtifactCodec<Landmarks>() {
+
+		@Override
+		public void write(Landmarks landmarks, DataOutputStream out) throws IOException {
+			GraphArtifactStore.writeIntArray(landmarks.landmarkNodes, out);
+			GraphArtifactStore.writeFloatArray(landmarks.fromLandmark, out);
+			GraphArtifactStore.writeFloatArray(landmarks.toLandmark, out);
+		}
+
+		@Override
+		public Landmarks read(DataInputStream in) throws IOException {
+			return new Landmarks(GraphArtifactStore.readIntArray(in), GraphArtifactStore.readFloatArray(in),
+					GraphArtifactStore.readFloatArray(in));
+		}
+	};
+
+	/**
+	 * @return Builder to create landmarks of the given selection for a {@link GraphArtifactStore}
+	 */
+	public static ArtifactBuilder<Landmarks> createArtifactBuilder(final Selection selection) {
+		return new ArtifactBuilder<Landmarks>() {
+
+			@Override
+			public Landmarks build(RouteGraph graph) {
+				return Landmarks.build(graph, selection);
+			}
+		};
+	}
+
+
+	private final int landmarkCount;
+	private final int[] landmarkNodes;
+	// d(L,v) at index v * landmarkCount + L
+	private final float[] fromLandmark;
+	// d(v,L) at index v * landmarkCount + L
+	private final float[] toLandmark;
+
+
+	public Landmarks(int[] landmarkNodes, float[] fromLandmark, float[] toLandmark) {
+		this.landmarkCount = landmarkNodes.length;
+		this.landmarkNodes = landmarkNodes;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+
+	public int getLandmarkCount() {
+		return landmarkCount;
+	}
+
+	public int getLandmarkNode(int landmark) {
+		return landmarkNodes[landmark];
+	}
+
+	/**
+	 * @return Route time from landmark to node, infinite if not reachable
+	 */
+	public float getDistFromLandmark(int landmark, int node) {
+		return fromLandmark[node * landmarkCount + landmark];
+	}
+
+	/**
+	 * @return Route time from node to landmark, infinite if not reachable
+	 */
+	public float getDistToLandmark(int landmark, int node) {
+		return toLandmark[node * landmarkCount + landmark];
+	}
+
+	/**
+	 * @return Lower bound of route time from node to target given by one landmark, 0 if landmark gives no bound
+	 */
+	public float calcLowerBound(int landmark, int node, int target) {
+		return calcBound(getDistFromLandmark(landmark, node), getDistToLandmark(landmark, node),
+				getDistFromLandmark(landmark, target), getDistToLandmark(landmark, target));
+	}
+
+	private static float calcBound(float nodeFrom, float nodeTo, float targetFrom, float targetTo) {
+		float bound = 0.0f;
+		// Unreachable landmarks give no bound
+		if (nodeFrom != Float.POSITIVE_INFINITY && targetFrom != Float.POSITIVE_INFINITY) {
+			bound = Math.max(bound, targetFrom - nodeFrom);
+		}
+		if (nodeTo != Float.POSITIVE_INFINITY && targetTo != Float.POSITIVE_INFINITY) {
+			bound = Math.max(bound, nodeTo - targetTo);
+		}
+		return bound;
+	}
+
+
+
+	/**
+	 * Landmarks chosen for one query and their distances to the target nodes. Kept in the {@link SearchContext} and reused for
+	 * following queries, evaluating the bound allocates nothing.
+	 */
+	public static class Query {
+
+		// Safety factor compensating float rounding of the tables, keeps heuristic admissible
+		private static final float BOUND_SAFETY_FACTOR = 0.9999f;
+		private static final int MAX_TARGET_NODES = 2;
+
+		private Landmarks landmarks;
+		private final int[] activeLandmarks = new int[ACTIVE_LANDMARK_COUNT];
+		private final float[] activeScores = new float[ACTIVE_LANDMARK_COUNT];
+		private int activeCount;
+
+		private final int[] targetNodes = new int[MAX_TARGET_NODES];
+		private final float[] targetCosts = new float[MAX_TARGET_NODES];
+		private int targetCount;
+		// d(L,t) and d(t,L) at index target * ACTIVE_LANDMARK_COUNT + active landmark
+		private final float[] targetFrom = new float[MAX_TARGET_NODES * ACTIVE_LANDMARK_COUNT];
+		private final float[] targetTo = new float[MAX_TARGET_NODES * ACTIVE_LANDMARK_COUNT];
+
+
+		/**
+		 * Chooses the landmarks giving the best bound from start to target
+		 */
+		public void init(Landmarks landmarks, RoutePoint startPoint, RoutePoint targetPoint) {
+			this.landmarks = landmarks;
+
+			targetCount = 0;
+			for (int i = 0; i < targetPoint.getNodeCount() && targetCount < MAX_TARGET_NODES; i++) {
+				if (targetPoint.getTargetCost(i) != Float.POSITIVE_INFINITY) {
+					targetNodes[targetCount] = targetPoint.getNode(i);
+					targetCosts[targetCount] = targetPoint.getTargetCost(i);
+					targetCount++;
+				}
+			}
+
+			// Keep best landmarks sorted by descending score
+			activeCount = 0;
+			if (targetCount > 0) {
+				int startNode = startPoint.getNode(0);
+				for (int landmark = 0; landmark < landmarks.getLandmarkCount(); landmark++) {
+					float score = landmarks.calcLowerBound(landmark, startNode, targetNodes[0]);
+					if (activeCount == ACTIVE_LANDMARK_COUNT && score <= activeScores[activeCount - 1]) {
+						continue;
+					}
+					int i = Math.min(activeCount, ACTIVE_LANDMARK_COUNT - 1);
+					while (i > 0 && activeScores[i - 1] < score) {
+						activeLandmarks[i] = activeLandmarks[i - 1];
+						activeScores[i] = activeScores[i - 1];
+						i--;
+					}
+					activeLandmarks[i] = landmark;
+					activeScores[i] = score;
+					activeCount = Math.min(activeCount + 1, ACTIVE_LANDMARK_COUNT);
+				}
+			}
+
+			for (int t = 0; t < targetCount; t++) {
+				for (int a = 0; a < activeCount; a++) {
+					targetFrom[t * ACTIVE_LANDMARK_COUNT + a] = landmarks.getDistFromLandmark(activeLandmarks[a], targetNodes[t]);
+					targetTo[t * ACTIVE_LANDMARK_COUNT + a] = landmarks.getDistToLandmark(activeLandmarks[a], targetNodes[t]);
+				}
+			}
+		}
+
+		/**
+		 * Forgets landmarks, bound is 0 until initialized again
+		 */
+		public void reset() {
+			landmarks = null;
+			activeCount = 0;
+			targetCount = 0;
+		}
+
+		public boolean isActive() {
+			return activeCount > 0;
+		}
+
+		public int getActiveLandmarkCount() {
+			return activeCount;
+		}
+
+		public int getActiveLandmark(int i) {
+			return activeLandmarks[i];
+		}
+
+		/**
+		 * @return Lower bound of route time from node to target point using the active landmarks
+		 */
+		public float calcLowerBound(int node) {
+			if (activeCount == 0) {
+				return 0.0f;
+			}
+
+			int nodeOffset = node * landmarks.landmarkCount;
+			float minBound = Float.POSITIVE_INFINITY;
+			for (int t = 0; t < targetCount; t++) {
+				float bound = 0.0f;
+				for (int a = 0; a < activeCount; a++) {
+					int landmark = activeLandmarks[a];
+					bound = Math.max(bound, calcBound(landmarks.fromLandmark[nodeOffset + landmark], landmarks.toLandmark[nodeOffset
+							+ landmark], targetFrom[t * ACTIVE_LANDMARK_COUNT + a], targetTo[t * ACTIVE_LANDMARK_COUNT + a]));
+				}
+				minBound = Math.min(minBound, bound * BOUND_SAFETY_FACTOR + targetCosts[t]);
+			}
+			return minBound;
+		}
+	}
+
+
+
+	/**
+	 * Selects landmarks and calculates distance tables, table searches run in parallel on the common fork-join pool by
+	 * delta-stepping
+	 */
+	public static Landmarks build(RouteGraph graph, Selection selection) {
+		System.out.println("Start selecting landmarks by " + selection);
+		long startTime = System.currentTimeMillis();
+
+		int nodeCount = graph.getNodeCount();
+		int landmarkCount = Math.min(LANDMARK_COUNT, nodeCount);
+		int[] landmarkNodes = new int[landmarkCount];
+		float[] fromLandmark = new float[nodeCount * landmarkCount];
+		float[] toLandmark = new float[nodeCount * landmarkCount];
+		Landmarks landmarks = new Landmarks(landmarkNodes, fromLandmark, toLandmark);
+		Random rd = new Random(SELECTION_SEED);
+
+		// Root reaching most nodes, avoids landmarks on small islands
+		SearchTree rootTree = null;
+		for (int i = 0; i < ROOT_CANDIDATES && nodeCount > 0; i++) {
+			SearchTree tree = DijkstraRouteSolver.searchAll(graph, rd.nextInt(nodeCount), false);
+			if (rootTree == null || tree.getSettledNodeCount() > rootTree.getSettledNodeCount()) {
+				rootTree = tree;
+			}
+		}
+
+		switch (selection) {
+			case Farthest:
+				selectFarthest(graph, landmarkNodes, rootTree);
+				calculateTables(graph, landmarks, 0, landmarkCount);
+				break;
+			case Avoid:
+				for (int i = 0; i < landmarkCount; i++) {
+					int root = rootTree.getSettledNode(rd.nextInt(rootTree.getSettledNodeCount()));
+					landmarkNodes[i] = selectAvoid(graph, landmarks, i, root);
+					calculateTables(graph, landmarks, i, i + 1);
+				}
+				break;
+		}
+
+		System.out.println("Finished building " + landmarkCount + " landmarks by " + selection + " after "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+		return landmarks;
+	}
+
+
+	/**
+	 * Each landmark is the node farthest from all landmarks selected before, the first one is farthest from the root
+	 */
+	private static void selectFarthest(RouteGraph graph, int[] landmarkNodes, SearchTree rootTree) {
+		float[] minDists = new float[graph.getNodeCount()];
+		Arrays.fill(minDists, Float.POSITIVE_INFINITY);
+		updateMinDists(rootTree, minDists);
+
+		for (int i = 0; i < landmarkNodes.length; i++) {
+			int farthestNode = -1;
+			for (int node = 0; node < minDists.length; node++) {
+				if (minDists[node] != Float.POSITIVE_INFINITY && (farthestNode == -1 || minDists[node] > minDists[farthestNode])) {
+					farthestNode = node;
+				}
+			}
+			landmarkNodes[i] = farthestNode;
+
+			if (i == 0) {
+				// Distances from root do not count for following landmarks
+				Arrays.fill(minDists, Float.POSITIVE_INFINITY);
+			}
+			updateMinDists(DijkstraRouteSolver.searchAll(graph, farthestNode, false), minDists);
+		}
+	}
+
+	private static void updateMinDists(SearchTree tree, float[] minDists) {
+		for (int s = 0; s < tree.getSettledNodeCount(); s++) {
+			int node = tree.getSettledNode(s);
+			minDists[node] = Math.min(minDists[node], tree.getDist(node));
+		}
+	}
+
+
+	/**
+	 * Avoid selection: Grows a shortest path tree from the root, weights each node by the difference of its distance and the
+	 * lower bound of the landmarks so far. Descends from the node with the largest subtree weight to a leaf, subtrees containing
+	 * a landmark are skipped.
+	 */
+	private static int selectAvoid(RouteGraph graph, Landmarks landmarks, int selectedCount, int root) {
+		SearchTree tree = DijkstraRouteSolver.searchAll(graph, root, false);
+		int nodeCount = graph.getNodeCount();
+		float[] sizes = new float[nodeCount];
+		boolean[] covered = new boolean[nodeCount];
+		int[] bestChilds = new int[nodeCount];
+		Arrays.fill(bestChilds, -1);
+		for (int i = 0; i < selectedCount; i++) {
+			covered[landmarks.getLandmarkNode(i)] = true;
+		}
+
+		// Children are settled after their parents
+		int bestNode = -1;
+		for (int s = tree.getSettledNodeCount() - 1; s >= 0; s--) {
+			int node = tree.getSettledNode(s);
+			if (covered[node]) {
+				sizes[node] = 0.0f;
+			}
+			else {
+				float bound = 0.0f;
+				for (int i = 0; i < selectedCount; i++) {
+					bound = Math.max(bound, landmarks.calcLowerBound(i, root, node));
+				}
+				sizes[node] += tree.getDist(node) - bound;
+				if (bestNode == -1 || sizes[node] > sizes[bestNode]) {
+					bestNode = node;
+				}
+			}
+
+			int pred = tree.getPred(node);
+			if (pred != -1) {
+				if (covered[node]) {
+					covered[pred] = true;
+				}
+				else {
+					sizes[pred] += sizes[node];
+					if (bestChilds[pred] == -1 || sizes[node] > sizes[bestChilds[pred]]) {
+						bestChilds[pred] = node;
+					}
+				}
+			}
+		}
+
+		if (bestNode == -1) {
+			// Whole tree covered already
+			return root;
+		}
+		int leaf = bestNode;
+		while (bestChilds[leaf] != -1 && !covered[bestChilds[leaf]]) {
+			leaf = bestChilds[leaf];
+		}
+		return leaf;
+	}
+
+
+	/**
+	 * Calculates tables of landmarks from..to-1 with one forward and one backward delta-stepping search each. Searches run one
+	 * after another, each relaxes its buckets in parallel.
+	 */
+	private static void calculateTables(RouteGraph graph, Landmarks landmarks, int from, int to) {
+		DeltaSteppingSearch search = new DeltaSteppingSearch(graph);
+		float[] startCosts = new float[] { 0.0f };
+		for (int landmark = from; landmark < to; landmark++) {
+			int[] sources = new int[] { landmarks.landmarkNodes[landmark] };
+			fillTable(search.searchAll(sources, startCosts, false), landmarks.fromLandmark, landmark, landmarks.landmarkCount);
+			fillTable(search.searchAll(sources, startCosts, true), landmarks.toLandmark, landmark, landmarks.landmarkCount);
+		}
+	}
+
+	private static void fillTable(float[] dists, float[] table, int landmark, int landmarkCount) {
+		for (int node = 0; node < dists.length; node++) {
+			table[node * landmarkCount + landmark] = dists[node];
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Fixed layout graph file which is memory mapped instead of parsed. After a header follow the node arrays (IDs, latitudes,
+ * longitudes), the forward CSR arrays (offsets, targets, route times) and the reverse CSR arrays (offsets, sources, route times),
+ * all as little endian 4 byte values. Graphs with an {@link EdgeGeometry} are followed by the shape point offsets per edge and
+ * the point latitudes, longitudes and fractions. A {@link RouteGraph} opened from this file works directly on the mapped buffers.
+ * <p>
+ * Nodes are renumbered in {@link HilbertNodeOrder} when converting. The header holds the checksum of the reordered graph, so
+ * derived artifacts stay valid. Run main to convert a graph.bin.
+ * <p>
+ * Mapped graphs are off heap and shared through the page cache by all processes opening the same file.
+ */
+@SuppressWarnings("javadoc")
+public class MappedGraphFile {
+
+	private static final int GRAPH_MAGIC = 0x4A4D4E47; // "JMNG"
+	private static final int GRAPH_FORMAT_VERSION = 3;
+	// magic, version, node count, edge count, checksum, shape point count (-1 without geometry)
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 4;
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+
+
+	/**
+	 * Converts a graph.bin to a mapped graph file
+	 *
+	 * @param args
+	 *            Optional graph.bin path and mapped graph file path
+	 */
+	public static void main(String[] args) throws IOException {
+		String legacyFile = (args.length > 0) ? args[0] : RouteGraph.GRAPH_FILE;
+		String mappedFile = (args.length > 1) ? args[1] : RouteGraph.MAPPED_GRAPH_FILE;
+		write(HilbertNodeOrder.reorder(ParallelGraphLoader.load(legacyFile)), new File(mappedFile));
+	}
+
+
+	/**
+	 * Opens mapped graph file if it is present and not older than the graph.bin, otherwise loads graph.bin and converts it
+	 *
+	 * @return Graph in Hilbert node order
+	 */
+	public static RouteGraph loadOrConvert(String legacyFile, String mappedFile) throws IOException {
+		File legacy = new File(legacyFile);
+		File mapped = new File(mappedFile);
+
+		if (mapped.exists() && (!legacy.exists() || mapped.lastModified() >= legacy.lastModified())) {
+			try {
+				return open(mapped);
+			}
+			catch (IOException e) {
+				System.err.println("Failed to open mapped graph file, converting graph again: " + e);
+			}
+		}
+
+		RouteGraph graph = HilbertNodeOrder.reorder(ParallelGraphLoader.load(legacyFile));
+		try {
+			write(graph, mapped);
+			// Use mapped file so converted graph does not stay on the heap
+			return open(mapped);
+		}
+		catch (IOException e) {
+			System.err.println("Failed to write mapped graph file " + mapped);
+			e.printStackTrace();
+		}
+		return graph;
+	}
+
+
+
+	/**
+	 * Maps graph file into memory
+	 */
+	public static RouteGraph open(File file) throws IOException {
+		System.out.println("Start opening mapped graph " + file);
+		long startTime = System.currentTimeMillis();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size())).order(BYTE_ORDER);
+			if (header.limit() < HEADER_SIZE || header.getInt() != GRAPH_MAGIC) {
+				throw new IOException("Not a mapped graph file: " + file);
+			}
+			int formatVersion = header.getInt();
+			if (formatVersion != GRAPH_FORMAT_VERSION) {
+				throw new IOException("Unsupported mapped graph format version " + formatVersion);
+			}
+			int nodeCount = header.getInt();
+			int edgeCount = header.getInt();
+			long checksum = header.getLong();
+			int pointCount = header.getInt();
+
+			long expectedSize = HEADER_SIZE + 4L * (3L * nodeCount + 2L * (nodeCount + 1) + 4L * edgeCount);
+			if (pointCount >= 0) {
+				expectedSize += 4L * (edgeCount + 1 + 3L * pointCount);
+			}
+			if (nodeCount < 0 || edgeCount < 0 || pointCount < -1 || channel.size() != expectedSize) {
+				throw new IOException("Mapped graph file size " + channel.size() + " does not match header, expected " + expectedSize);
+			}
+
+			// Mappings stay valid after channel is closed
+			long position = HEADER_SIZE;
+			IntBuffer nodeIds = mapInts(channel, position, nodeCount);
+			position += 4L * nodeCount;
+			FloatBuffer nodesLat = mapFloats(channel, position, nodeCount);
+			position += 4L * nodeCount;
+			FloatBuffer nodesLon = mapFloats(channel, position, nodeCount);
+			position += 4L * nodeCount;
+			IntBuffer edgeOffsets = mapInts(channel, position, nodeCount + 1);
+			position += 4L * (nodeCount + 1);
+			IntBuffer edgeTargets = mapInts(channel, position, edgeCount);
+			position += 4L * edgeCount;
+			FloatBuffer edgeDists = mapFloats(channel, position, edgeCount);
+			position += 4L * edgeCount;
+			IntBuffer reverseEdgeOffsets = mapInts(channel, position, nodeCount + 1);
+			position += 4L * (nodeCount + 1);
+			IntBuffer reverseEdgeSources = mapInts(channel, position, edgeCount);
+			position += 4L * edgeCount;
+			FloatBuffer reverseEdgeDists = mapFloats(channel, position, edgeCount);
+			position += 4L * edgeCount;
+
+			EdgeGeometry geometry = null;
+			if (pointCount >= 0) {
+				IntBuffer pointOffsets = mapInts(channel, position, edgeCount + 1);
+				position += 4L * (edgeCount + 1);
+				FloatBuffer pointsLat = mapFloats(channel, position, pointCount);
+				position += 4L * pointCount;
+				FloatBuffer pointsLon = mapFloats(channel, position, pointCount);
+				position += 4L * pointCount;
+				FloatBuffer pointFractions = mapFloats(channel, position, pointCount);
+				geometry = new EdgeGeometry(pointOffsets, pointsLat, pointsLon, pointFractions);
+			}
+
+			RouteGraph graph = new RouteGraph(checksum, nodeIds, nodesLat, nodesLon, edgeOffsets, edgeTargets, edgeDists,
+					reverseEdgeOffsets, reverseEdgeSources, reverseEdgeDists, geometry);
+			System.out.println("Finished opening mapped graph with " + nodeCount + " nodes and " + edgeCount + " edges after "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+			return graph;
+		}
+	}
+
+	private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+		return channel.map(MapMode.READ_ONLY, position, 4L * count).order(BYTE_ORDER).asIntBuffer();
+	}
+
+	private static FloatBuffer mapFloats(FileChannel channel, long position, int count) throws IOException {
+		return channel.map(MapMode.READ_ONLY, position, 4L * count).order(BYTE_ORDER).asFloatBuffer();
+	}
+
+
+
+	/**
+	 * Writes graph to mapped graph file, replaces existing file when finished
+	 */
+	public static void write(RouteGraph graph, File file) throws IOException {
+		System.out.println("Start writing mapped graph " + file);
+		long startTime = System.currentTimeMillis();
+
+		int nodeCount = graph.getNodeCount();
+		int edgeCount = graph.getEdgeCount();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw"); FileChannel channel = raf.getChannel()) {
+			raf.setLength(0);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(BYTE_ORDER);
+
+			buffer.putInt(GRAPH_MAGIC);
+			buffer.putInt(GRAPH_FORMAT_VERSION);
+			buffer.putInt(nodeCount);
+			buffer.putInt(edgeCount);
+			buffer.putLong(graph.getChecksum());
+			EdgeGeometry geometry = graph.getEdgeGeometry();
+			buffer.putInt((geometry != null) ? geometry.getPointCount() : -1);
+
+			for (int i = 0; i < nodeCount; i++) {
+				putInt(channel, buffer, graph.getNodeId(i));
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				putFloat(channel, buffer, graph.getNodeLat(i));
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				putFloat(channel, buffer, graph.getNodeLon(i));
+			}
+
+			for (int i = 0; i < nodeCount; i++) {
+				putInt(channel, buffer, graph.getEdgesStart(i));
+			}
+			putInt(channel, buffer, edgeCount);
+			for (int i = 0; i < edgeCount; i++) {
+				putInt(channel, buffer, graph.getEdgeTarget(i));
+			}
+			for (int i = 0; i < edgeCount; i++) {
+				putFloat(channel, buffer, graph.getEdgeDist(i));
+			}
+
+			for (int i = 0; i < nodeCount; i++) {
+				putInt(channel, buffer, graph.getReverseEdgesStart(i));
+			}
+			putInt(channel, buffer, edgeCount);
+			for (int i = 0; i < edgeCount; i++) {
+				putInt(channel, buffer, graph.getReverseEdgeSource(i));
+			}
+			for (int i = 0; i < edgeCount; i++) {
+				putFloat(channel, buffer, graph.getReverseEdgeDist(i));
+			}
+
+			if (geometry != null) {
+				for (int i = 0; i < edgeCount; i++) {
+					putInt(channel, buffer, geometry.getPointsStart(i));
+				}
+				putInt(channel, buffer, geometry.getPointCount());
+				for (int i = 0; i < geometry.getPointCount(); i++) {
+					putFloat(channel, buffer, geometry.getPointLat(i));
+				}
+				for (int i = 0; i < geometry.getPointCount(); i++) {
+					putFloat(channel, buffer, geometry.getPointLon(i));
+				}
+				for (int i = 0; i < geometry.getPointCount(); i++) {
+					putFloat(channel, buffer, geometry.getPointFraction(i));
+				}
+			}
+
+			flush(channel, buffer);
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		System.out.println("Finished writing mapped graph after " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+
+	private static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush(channel, buffer);
+		}
+		buffer.putInt(value);
+	}
+
+	private static void putFloat(FileChannel channel, ByteBuffer buffer, float value) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush(channel, buffer);
+		}
+		buffer.putFloat(value);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -1,30 +1,34 @@
 package org.openstreetmap.gui.jmapnavigator;
 
+import java.util.Arrays;
+
 
 
 /**
- * Min heap for map nodes
+ * Indexed min heap for map nodes. Keeps track of the heap slot of every node so that decreaseKey runs in logarithmic time. Grows
+ * on demand.
  *
  * @author Jonas Grunert
  *
  */
 @SuppressWarnings("javadoc")
-public class NodeDistHeap {
+public class NodeDistHeap implements INodeQueue {
 
-	private final int maxCapacity;
-	private final float[] valuesArray;
-	// Combined gridIndex(63-32)+nodeIndex(31-0)
-	private final long[] nodeGridIndexArray;
+	private float[] valuesArray;
+	private int[] nodeGridIndexArray;
+	// Heap slot of each node, -1 if not in heap
+	private final int[] nodeHeapIndices;
 	private int size;
 	private int sizeUsageMax;
 
 	/**
 	 * Initializes heap
 	 */
-	public NodeDistHeap(int maxCapacity) {
-		this.maxCapacity = maxCapacity;
-		valuesArray = new float[maxCapacity + 1];
-		nodeGridIndexArray = new long[maxCapacity + 1];
+	public NodeDistHeap(int initialCapacity, int nodeCount) {
+		valuesArray = new float[initialCapacity + 1];
+		nodeGridIndexArray = new int[initialCapacity + 1];
+		nodeHeapIndices = new int[nodeCount];
+		Arrays.fill(nodeHeapIndices, -1);
 		size = 0;
 		sizeUsageMax = 0;
 	}
@@ -44,14 +48,19 @@ public class NodeDistHeap {
 	//        System.out.println("Finished reset NodeDistHeap");
 	//    }
 
+	@Override
 	public void resetEmpty() {
+		for (int i = 1; i <= size; i++) {
+			nodeHeapIndices[nodeGridIndexArray[i]] = -1;
+		}
 		size = 0;
 		sizeUsageMax = 0;
 	}
 
-	public void add(long nodeGridIndex, float value) {
-		if (size >= maxCapacity) {
-			throw new IllegalStateException("Heap capacity exceeded");
+	@Override
+	public void add(int nodeGridIndex, float value) {
+		if (size + 1 >= valuesArray.length) {
+			grow();
 		}
 		//        if(nodeGridHeapIndices.containsKey(nodeGridIndex)) {
 		//            throw new IllegalStateException("Cant add same node twice");
@@ -62,6 +71,7 @@ public class NodeDistHeap {
 		int indexInHeap = size;
 		valuesArray[indexInHeap] = value;
 		nodeGridIndexArray[indexInHeap] = nodeGridIndex;
+		nodeHeapIndices[nodeGridIndex] = indexInHeap;
 
 		if (size > sizeUsageMax) {
 			sizeUsageMax = size;
@@ -71,11 +81,21 @@ public class NodeDistHeap {
 	}
 
 	/**
-	 * Decreases key if new key smaller than existing key Slow linear time complexity (n=heapsize) but isnt called very often.
+	 * Doubles heap capacity
+	 */
+	private void grow() {
+		int newLength = valuesArray.length * 2;
+		valuesArray = Arrays.copyOf(valuesArray, newLength);
+		nodeGridIndexArray = Arrays.copyOf(nodeGridIndexArray, newLength);
+	}
+
+	/**
+	 * Decreases key if new key smaller than existing key. Logarithmic time complexity (n=heapsize).
 	 */
-	public boolean decreaseKeyIfSmaller(long nodeGridIndex, float newKey) {
+	@Override
+	public boolean decreaseKeyIfSmaller(int nodeGridIndex, float newKey) {
 		int heapIndex = findNode(nodeGridIndex);
-		if (newKey < valuesArray[heapIndex]) {
+		if (heapIndex != -1 && newKey < valuesArray[heapIndex]) {
 			valuesArray[heapIndex] = newKey;
 			bubbleUp(heapIndex);
 			return true;
@@ -101,21 +121,18 @@ public class NodeDistHeap {
 	 *            GridNode ID of node
 	 * @return Index in heap or -1 if not found
 	 */
-	public int findNode(long nodeGridIndex) {
-		for (int i = 1; i < size + 1; i++) {
-			if (nodeGridIndexArray[i] == nodeGridIndex) {
-				return i;
-			}
-		}
-		return -1;
+	public int findNode(int nodeGridIndex) {
+		return nodeHeapIndices[nodeGridIndex];
 	}
 
 
+	@Override
 	public boolean isEmpty() {
 		return size == 0;
 	}
 
 
+	@Override
 	public float peekNodeValue() {
 		if (this.isEmpty()) {
 			throw new IllegalStateException();
@@ -125,7 +142,7 @@ public class NodeDistHeap {
 	}
 
 
-	public long peekNodeGridIndex() {
+	public int peekNodeGridIndex() {
 		//        if (this.isEmpty()) {
 		//            throw new IllegalStateException();
 		//        }
@@ -135,13 +152,15 @@ public class NodeDistHeap {
 
 
 
-	public long removeFirst() {
+	@Override
+	public int removeFirst() {
 		assert !this.isEmpty();
 		//        if (this.isEmpty()) {
 		//          throw new IllegalStateException();
 		//      }
 
-		long nodeGridIndex = nodeGridIndexArray[1];
+		int nodeGridIndex = nodeGridIndexArray[1];
+		nodeHeapIndices[nodeGridIndex] = -1;
 
 		// get rid of the last leaf/decrement
 		valuesArray[1] = valuesArray[size];
@@ -150,7 +169,10 @@ public class NodeDistHeap {
 		//nodeGridIndexArray[size] = -1;
 		size--;
 
-		bubbleDown();
+		if (size > 0) {
+			nodeHeapIndices[nodeGridIndexArray[1]] = 1;
+			bubbleDown();
+		}
 
 		return nodeGridIndex;
 	}
@@ -238,6 +260,7 @@ public class NodeDistHeap {
 		return i / 2;
 	}
 
+	@Override
 	public int getSize() {
 		return size;
 	}
@@ -253,8 +276,11 @@ public class NodeDistHeap {
 		valuesArray[index1] = valuesArray[index2];
 		valuesArray[index2] = tmp1;
 
-		long tmp2 = nodeGridIndexArray[index1];
+		int tmp2 = nodeGridIndexArray[index1];
 		nodeGridIndexArray[index1] = nodeGridIndexArray[index2];
 		nodeGridIndexArray[index2] = tmp2;
+
+		nodeHeapIndices[nodeGridIndexArray[index1]] = index1;
+		nodeHeapIndices[nodeGridIndexArray[index2]] = index2;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+
+/**
+ * Uniform grid over the node coordinates of a {@link RouteGraph} for nearest node queries. Cells are searched in rings around the
+ * query cell until the closest node found is closer than any node outside the searched rings can be. Gives the same result as a
+ * linear scan over all nodes with {@link Utils#calcNodeDistPrecise}, ties are resolved to the lowest node index.
+ */
+@SuppressWarnings("javadoc")
+public class NodeGridIndex {
+
+	private static final double EARTH_RADIUS = 6371000; // meters
+	// Average number of nodes per cell
+	private static final int NODES_PER_CELL = 4;
+	// Minimum cell extent in degrees, for degenerated graphs
+	private static final double MIN_CELL_SIZE = 0.00001;
+
+	private final RouteGraph graph;
+
+	private final double minLat;
+	private final double minLon;
+	private final double cellSizeLat;
+	private final double cellSizeLon;
+	private final int rows;
+	private final int columns;
+	// Maximum absolute latitude of nodes in radians, bounds distances in longitude direction
+	private final double maxAbsLatRad;
+
+	// Nodes sorted by cell, nodes of cell i at cellOffsets[i]..cellOffsets[i+1]-1
+	private final int[] cellOffsets;
+	private final int[] cellNodes;
+
+
+
+	public NodeGridIndex(RouteGraph graph) {
+		this.graph = graph;
+		int nodeCount = graph.getNodeCount();
+
+		double minLat = Double.MAX_VALUE;
+		double maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE;
+		double maxLon = -Double.MAX_VALUE;
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			minLat = Math.min(minLat, graph.getNodeLat(iNode));
+			maxLat = Math.max(maxLat, graph.getNodeLat(iNode));
+			minLon = Math.min(minLon, graph.getNodeLon(iNode));
+			maxLon = Math.max(maxLon, graph.getNodeLon(iNode));
+		}
+		if (nodeCount == 0) {
+			minLat = maxLat = minLon = maxLon = 0;
+		}
+
+		double extentLat = Math.max(maxLat - minLat, MIN_CELL_SIZE);
+		double extentLon = Math.max(maxLon - minLon, MIN_CELL_SIZE);
+		double cellCount = Math.max(1, nodeCount / NODES_PER_CELL);
+		double cellSize = Math.max(Math.sqrt(extentLat * extentLon / cellCount), MIN_CELL_SIZE);
+
+		this.minLat = minLat;
+		this.minLon = minLon;
+		this.rows = Math.max(1, (int) Math.ceil(extentLat / cellSize));
+		this.columns = Math.max(1, (int) Math.ceil(extentLon / cellSize));
+		this.cellSizeLat = extentLat / rows;
+		this.cellSizeLon = extentLon / columns;
+		this.maxAbsLatRad = Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat)));
+
+		// Counting sort of nodes by cell, keeps ascending node order within cells
+		cellOffsets = new int[rows * columns + 1];
+		int[] nodeCells = new int[nodeCount];
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			nodeCells[iNode] = getRow(graph.getNodeLat(iNode)) * columns + getColumn(graph.getNodeLon(iNode));
+			cellOffsets[nodeCells[iNode] + 1]++;
+		}
+		for (int iCell = 0; iCell < rows * columns; iCell++) {
+			cellOffsets[iCell + 1] += cellOffsets[iCell];
+		}
+		int[] cellFill = new int[rows * columns];
+		System.arraycopy(cellOffsets, 0, cellFill, 0, cellFill.length);
+		cellNodes = new int[nodeCount];
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			cellNodes[cellFill[nodeCells[iNode]]++] = iNode;
+		}
+
+		System.out.println("Built node grid index with " + rows + "x" + columns + " cells");
+	}
+
+
+	private int getRow(double lat) {
+		return Math.min(rows - 1, Math.max(0, (int) ((lat - minLat) / cellSizeLat)));
+	}
+
+	private int getColumn(double lon) {
+		return Math.min(columns - 1, Math.max(0, (int) ((lon - minLon) / cellSizeLon)));
+	}
+
+
+
+	/**
+	 * Finds node closest to given coordinate
+	 *
+	 * @param components
+	 *            Only find nodes of the largest component if not null
+	 * @return Index of closest node or -1 if graph is empty
+	 */
+	public int findNextNode(float lat, float lon, StronglyConnectedComponents components) {
+		int queryRow = getRow(lat);
+		int queryColumn = getColumn(lon);
+
+		int nextIndex = -1;
+		float smallestDist = Float.MAX_VALUE;
+
+		int maxRing = Math.max(Math.max(queryRow, rows - 1 - queryRow), Math.max(queryColumn, columns - 1 - queryColumn));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			int rowStart = Math.max(0, queryRow - ring);
+			int rowEnd = Math.min(rows - 1, queryRow + ring);
+			for (int row = rowStart; row <= rowEnd; row++) {
+				boolean fullRow = (row == queryRow - ring || row == queryRow + ring);
+				int columnStep = fullRow ? 1 : 2 * ring;
+				for (int column = queryColumn - ring; column <= queryColumn + ring; column += Math.max(1, columnStep)) {
+					if (column < 0 || column >= columns) {
+						continue;
+					}
+
+					int cell = row * columns + column;
+					for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+						int iNode = cellNodes[i];
+						if (components != null && !components.isInLargestComponent(iNode)) {
+							continue;
+						}
+						float dist = Utils.calcNodeDistPrecise(lat, lon, graph.getNodeLat(iNode), graph.getNodeLon(iNode));
+						if (dist < smallestDist || (dist == smallestDist && iNode < nextIndex)) {
+							smallestDist = dist;
+							nextIndex = iNode;
+						}
+					}
+				}
+			}
+
+			if (nextIndex != -1 && calcOutsideRingLowerBound(lat, lon, queryRow, queryColumn, ring) > smallestDist) {
+				break;
+			}
+		}
+
+		return nextIndex;
+	}
+
+
+	/**
+	 * Lower bound for distance from coordinate to any node outside the cells within ring around query cell
+	 */
+	private double calcOutsideRingLowerBound(float lat, float lon, int queryRow, int queryColumn, int ring) {
+		double minDegLat = Double.POSITIVE_INFINITY;
+		if (queryRow + ring + 1 < rows) {
+			minDegLat = Math.min(minDegLat, Math.max(0, minLat + (queryRow + ring + 1) * cellSizeLat - lat));
+		}
+		if (queryRow - ring - 1 >= 0) {
+			minDegLat = Math.min(minDegLat, Math.max(0, lat - (minLat + (queryRow - ring) * cellSizeLat)));
+		}
+		double minDegLon = Double.POSITIVE_INFINITY;
+		if (queryColumn + ring + 1 < columns) {
+			minDegLon = Math.min(minDegLon, Math.max(0, minLon + (queryColumn + ring + 1) * cellSizeLon - lon));
+		}
+		if (queryColumn - ring - 1 >= 0) {
+			minDegLon = Math.min(minDegLon, Math.max(0, lon - (minLon + (queryColumn - ring) * cellSizeLon)));
+		}
+
+		// Great circle distance is at least the latitude difference
+		double boundLat = EARTH_RADIUS * Math.toRadians(minDegLat);
+		// and at least the longitude difference at the highest latitude involved
+		double boundLon = Double.POSITIVE_INFINITY;
+		if (minDegLon != Double.POSITIVE_INFINITY) {
+			double cosLat = Math.cos(Math.max(maxAbsLatRad, Math.toRadians(Math.abs(lat))));
+			double dLonRad = Math.min(Math.PI, Math.toRadians(minDegLon));
+			boundLon = 2 * EARTH_RADIUS * Math.asin(Math.min(1, cosLat * Math.sin(dLonRad / 2)));
+		}
+
+		// Safety margin for float rounding of calculated distances
+		return Math.min(boundLat, boundLon) * 0.9999 - 0.01;
+	}
+}
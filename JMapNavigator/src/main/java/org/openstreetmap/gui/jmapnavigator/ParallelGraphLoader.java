@@ -0,0 +1,210 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+
+/**
+ * Loads graph.bin as produced by SimpleOSM2Graph in parallel. The file is mapped, a sequential pre-pass only reads the edge
+ * counts to find the offsets of all node records. Node and edge records are then decoded in chunks on a fork-join pool while
+ * the checksum is calculated concurrently. Gives the same graph as {@link RouteGraph#loadFromFile(String)}.
+ */
+@SuppressWarnings("javadoc")
+public class ParallelGraphLoader {
+
+	// Node record: int ID, double lat, double lon, int edge count
+	private static final int NODE_RECORD_SIZE = 4 + 8 + 8 + 4;
+	// Edge record: int target ID, double route time
+	private static final int EDGE_RECORD_SIZE = 4 + 8;
+	// Nodes per chunk decoded by one task
+	private static final int CHUNK_NODES = 1 << 14;
+
+
+	/**
+	 * Processes the nodes from..to-1
+	 */
+	private interface NodeRangeProcessor {
+
+		void process(int from, int to);
+	}
+
+	/**
+	 * Splits a node range until it is small enough to be processed in one chunk
+	 */
+	private static class NodeRangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final NodeRangeProcessor processor;
+		private final int from;
+		private final int to;
+
+		public NodeRangeTask(NodeRangeProcessor processor, int from, int to) {
+			this.processor = processor;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CHUNK_NODES) {
+				processor.process(from, to);
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new NodeRangeTask(processor, from, mid), new NodeRangeTask(processor, mid, to));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Loads graph file on the common fork-join pool
+	 */
+	public static RouteGraph load(String graphFile) throws IOException {
+		return load(graphFile, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Loads graph file using the given pool
+	 */
+	public static RouteGraph load(String graphFile, ForkJoinPool pool) throws IOException {
+		System.out.println("Start loading map graph in parallel");
+		long startTime = System.currentTimeMillis();
+
+		long fileSize = new File(graphFile).length();
+		if (fileSize > Integer.MAX_VALUE) {
+			// Single mapping is limited to 2GB
+			System.err.println("Graph file too large for parallel loading, loading sequentially");
+			return RouteGraph.loadFromFile(graphFile);
+		}
+
+		final ByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(graphFile, "r"); FileChannel channel = raf.getChannel()) {
+			buffer = channel.map(MapMode.READ_ONLY, 0, fileSize);
+		}
+
+		// Checksum concurrently to decoding
+		final CRC32 crc = new CRC32();
+		ForkJoinTask<?> checksumTask = pool.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				crc.update(buffer.duplicate());
+			}
+		});
+
+		// Pre-pass: Find node record offsets and edge offsets
+		if (fileSize < 4) {
+			throw new IOException("Graph file truncated");
+		}
+		final int nodeCount = buffer.getInt(0);
+		final int[] nodeRecordOffsets = new int[nodeCount];
+		final int[] edgeOffsets = new int[nodeCount + 1];
+		long position = 4;
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			if (position + NODE_RECORD_SIZE > fileSize) {
+				throw new IOException("Graph file truncated at node " + iNode);
+			}
+			nodeRecordOffsets[iNode] = (int) position;
+			int numEdges = buffer.getInt((int) position + NODE_RECORD_SIZE - 4);
+			edgeOffsets[iNode + 1] = edgeOffsets[iNode] + numEdges;
+			position += NODE_RECORD_SIZE + (long) EDGE_RECORD_SIZE * numEdges;
+		}
+		if (position > fileSize) {
+			throw new IOException("Graph file truncated at edges of last node");
+		}
+		long prepassTime = System.currentTimeMillis();
+
+		// Decode nodes and edges in parallel
+		final int edgeCount = edgeOffsets[nodeCount];
+		final int[] nodeIds = new int[nodeCount];
+		final float[] nodesLat = new float[nodeCount];
+		final float[] nodesLon = new float[nodeCount];
+		final int[] edgeTargets = new int[edgeCount];
+		final float[] edgeDists = new float[edgeCount];
+		pool.invoke(new NodeRangeTask(new NodeRangeProcessor() {
+
+			@Override
+			public void process(int from, int to) {
+				for (int iNode = from; iNode < to; iNode++) {
+					int recordOffset = nodeRecordOffsets[iNode];
+					nodeIds[iNode] = buffer.getInt(recordOffset);
+					nodesLat[iNode] = (float) buffer.getDouble(recordOffset + 4);
+					nodesLon[iNode] = (float) buffer.getDouble(recordOffset + 12);
+
+					int edgeRecordOffset = recordOffset + NODE_RECORD_SIZE;
+					for (int iEdge = edgeOffsets[iNode]; iEdge < edgeOffsets[iNode + 1]; iEdge++) {
+						// Stores target node IDs, replaced by node indices below
+						edgeTargets[iEdge] = buffer.getInt(edgeRecordOffset);
+						edgeDists[iEdge] = (float) buffer.getDouble(edgeRecordOffset + 4);
+						edgeRecordOffset += EDGE_RECORD_SIZE;
+					}
+				}
+			}
+		}, 0, nodeCount));
+
+		// Translate edge targets to node indices, map is only read concurrently
+		final Int2IntMap nodeIdIndices = new Int2IntOpenHashMap(nodeCount);
+		nodeIdIndices.defaultReturnValue(-1);
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			nodeIdIndices.put(nodeIds[iNode], iNode);
+		}
+		pool.invoke(new NodeRangeTask(new NodeRangeProcessor() {
+
+			@Override
+			public void process(int from, int to) {
+				for (int iEdge = edgeOffsets[from]; iEdge < edgeOffsets[to]; iEdge++) {
+					edgeTargets[iEdge] = nodeIdIndices.get(edgeTargets[iEdge]);
+				}
+			}
+		}, 0, nodeCount));
+
+		// Drop edges to unknown nodes, rare so done sequentially
+		int iEdgeOut = 0;
+		int iEdgeIn = 0;
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			int edgesEnd = edgeOffsets[iNode + 1];
+			edgeOffsets[iNode] = iEdgeOut;
+			for (; iEdgeIn < edgesEnd; iEdgeIn++) {
+				if (edgeTargets[iEdgeIn] != -1) {
+					edgeTargets[iEdgeOut] = edgeTargets[iEdgeIn];
+					edgeDists[iEdgeOut] = edgeDists[iEdgeIn];
+					iEdgeOut++;
+				}
+			}
+		}
+		edgeOffsets[nodeCount] = iEdgeOut;
+		if (iEdgeOut < edgeCount) {
+			System.err.println("Dropped " + (edgeCount - iEdgeOut) + " edges to unknown nodes");
+		}
+		long decodeTime = System.currentTimeMillis();
+
+		checksumTask.join();
+		RouteGraph graph = new RouteGraph(crc.getValue(), nodeIds, nodesLat, nodesLon, edgeOffsets,
+				(iEdgeOut < edgeCount) ? Arrays.copyOf(edgeTargets, iEdgeOut) : edgeTargets,
+				(iEdgeOut < edgeCount) ? Arrays.copyOf(edgeDists, iEdgeOut) : edgeDists);
+
+		long endTime = System.currentTimeMillis();
+		double seconds = Math.max(1, endTime - startTime) / 1000.0;
+		System.out.println("Finished loading map graph with " + nodeCount + " nodes and " + iEdgeOut + " edges after "
+				+ (endTime - startTime) + "ms (pre-pass " + (prepassTime - startTime) + "ms, decode " + (decodeTime - prepassTime)
+				+ "ms, parallelism " + pool.getParallelism() + ")");
+		System.out.println(String.format("Load throughput: %.1f MB/s, %.0f nodes/s", fileSize / 1000000.0 / seconds,
+				nodeCount / seconds));
+		return graph;
+	}
+}
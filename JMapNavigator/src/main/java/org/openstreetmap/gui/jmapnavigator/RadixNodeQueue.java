@@ -0,0 +1,236 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Arrays;
+
+
+/**
+ * Radix heap for searches which never add values smaller than the last removed value, like Dijkstra. Keys are the bits of the
+ * float route times, which order like the values for non-negative floats, so the queue orders exactly like {@link NodeDistHeap}
+ * without quantizing route times.
+ * <p>
+ * Bucket 0 holds the keys equal to the last removed key, bucket b the keys whose highest bit differing from it is bit b-1. When
+ * bucket 0 is empty, the smallest key of the first non-empty bucket becomes the new last removed key and the bucket is
+ * distributed to lower buckets. Every entry moves to a lower bucket at most 32 times. Decreasing a value adds a new entry, the
+ * old one is skipped when reached. Values smaller than the last removed value, for example by rounding errors of A* heuristics,
+ * are raised to it.
+ */
+@SuppressWarnings("javadoc")
+public class RadixNodeQueue implements INodeQueue {
+
+	// Solvers compared by benchmark
+	static final String[] BENCHMARK_SOLVERS = new String[] { "Dijkstra", "A*", "Bidirectional Dijkstra" };
+
+	private static final int BUCKET_COUNT = 33;
+	private static final int BUCKET_INITIAL_CAPACITY = 16;
+	// Key of nodes not in queue, keys of non-negative floats are never negative
+	private static final int NOT_QUEUED = -1;
+
+	// Nodes and keys of entries in buckets, entries are stale if key is not the node key anymore
+	private final int[][] bucketNodes = new int[BUCKET_COUNT][];
+	private final int[][] bucketKeys = new int[BUCKET_COUNT][];
+	private final int[] bucketSizes = new int[BUCKET_COUNT];
+	// Current key of each node, NOT_QUEUED if not in queue
+	private final int[] nodeKeys;
+	private int lastMin;
+	private int size;
+
+
+
+	public RadixNodeQueue(int nodeCount) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			bucketNodes[i] = new int[BUCKET_INITIAL_CAPACITY];
+			bucketKeys[i] = new int[BUCKET_INITIAL_CAPACITY];
+		}
+		nodeKeys = new int[nodeCount];
+		Arrays.fill(nodeKeys, NOT_QUEUED);
+	}
+
+
+	@Override
+	public void resetEmpty() {
+		for (int b = 0; b < BUCKET_COUNT; b++) {
+			int[] nodes = bucketNodes[b];
+			for (int i = 0; i < bucketSizes[b]; i++) {
+				nodeKeys[nodes[i]] = NOT_QUEUED;
+			}
+			bucketSizes[b] = 0;
+		}
+		lastMin = 0;
+		size = 0;
+	}
+
+	@Override
+	public void add(int nodeIndex, float value) {
+		int key = toKey(value);
+		nodeKeys[nodeIndex] = key;
+		addEntry(nodeIndex, key);
+		size++;
+	}
+
+	@Override
+	public boolean decreaseKeyIfSmaller(int nodeIndex, float newValue) {
+		int key = nodeKeys[nodeIndex];
+		if (key == NOT_QUEUED || !(newValue < Float.intBitsToFloat(key))) {
+			return false;
+		}
+		int newKey = toKey(newValue);
+		if (newKey < key) {
+			nodeKeys[nodeIndex] = newKey;
+			addEntry(nodeIndex, newKey);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public float peekNodeValue() {
+		if (isEmpty()) {
+			throw new IllegalStateException();
+		}
+		findMin();
+		return Float.intBitsToFloat(lastMin);
+	}
+
+	@Override
+	public int removeFirst() {
+		if (isEmpty()) {
+			throw new IllegalStateException();
+		}
+		findMin();
+		int nodeIndex = bucketNodes[0][--bucketSizes[0]];
+		nodeKeys[nodeIndex] = NOT_QUEUED;
+		size--;
+		return nodeIndex;
+	}
+
+
+	/**
+	 * Makes sure that the last entry of bucket 0 is a valid entry with the smallest key. Queue must not be empty.
+	 */
+	private void findMin() {
+		while (true) {
+			// Drop stale entries of bucket 0
+			int[] nodes0 = bucketNodes[0];
+			int[] keys0 = bucketKeys[0];
+			while (bucketSizes[0] > 0) {
+				int i = bucketSizes[0] - 1;
+				if (nodeKeys[nodes0[i]] == keys0[i]) {
+					return;
+				}
+				bucketSizes[0] = i;
+			}
+
+			int b = 1;
+			while (bucketSizes[b] == 0) {
+				b++;
+			}
+			int[] nodes = bucketNodes[b];
+			int[] keys = bucketKeys[b];
+			int count = bucketSizes[b];
+			bucketSizes[b] = 0;
+
+			int min = Integer.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				if (nodeKeys[nodes[i]] == keys[i] && keys[i] < min) {
+					min = keys[i];
+				}
+			}
+			if (min == Integer.MAX_VALUE) {
+				// Only stale entries
+				continue;
+			}
+
+			// All valid entries go to lower buckets relative to the new minimum
+			lastMin = min;
+			for (int i = 0; i < count; i++) {
+				if (nodeKeys[nodes[i]] == keys[i]) {
+					addEntry(nodes[i], keys[i]);
+				}
+			}
+		}
+	}
+
+	private void addEntry(int nodeIndex, int key) {
+		int b = (key == lastMin) ? 0 : 32 - Integer.numberOfLeadingZeros(key ^ lastMin);
+		int i = bucketSizes[b];
+		if (i == bucketNodes[b].length) {
+			bucketNodes[b] = Arrays.copyOf(bucketNodes[b], i * 2);
+			bucketKeys[b] = Arrays.copyOf(bucketKeys[b], i * 2);
+		}
+		bucketNodes[b][i] = nodeIndex;
+		bucketKeys[b][i] = key;
+		bucketSizes[b] = i + 1;
+	}
+
+	/**
+	 * @return Key of value, not smaller than last removed key
+	 */
+	private int toKey(float value) {
+		return Math.max(Float.floatToRawIntBits(value), lastMin);
+	}
+
+
+
+	/**
+	 * Benchmark: Runs the same random queries with binary heap and radix queue for each solver, compares query times. Route times
+	 * must be identical.
+	 *
+	 * @param args
+	 *            [queries]
+	 */
+	public static void main(String[] args) throws Exception {
+		int queryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+
+		RouteGraph graph = MappedGraphFile.loadOrConvert(RouteGraph.GRAPH_FILE, RouteGraph.MAPPED_GRAPH_FILE);
+		for (int solver = 0; solver < BENCHMARK_SOLVERS.length; solver++) {
+			RouteBenchmark.run(createBenchmarkVariants(solver), graph, queryCount, 0.0f);
+		}
+	}
+
+	/**
+	 * @param solver
+	 *            Index of solver in BENCHMARK_SOLVERS
+	 * @return Variants of solver with each queue type
+	 */
+	static RouteBenchmark.VariantFactory createBenchmarkVariants(final int solver) {
+		return new RouteBenchmark.VariantFactory() {
+
+			@Override
+			public RouteBenchmark.Variant[] createVariants(RouteGraph graph) {
+				RouteBenchmark.Variant[] variants = new RouteBenchmark.Variant[INodeQueue.Type.values().length];
+				for (final INodeQueue.Type type : INodeQueue.Type.values()) {
+					variants[type.ordinal()] = new RouteBenchmark.Variant(BENCHMARK_SOLVERS[solver] + ", " + type, graph) {
+
+						@Override
+						protected AbstractRouteSolver createSolver(RoutingService routingService) {
+							AbstractRouteSolver routeSolver;
+							switch (solver) {
+								case 0:
+									routeSolver = new DijkstraRouteSolver(routingService);
+									break;
+								case 1:
+									routeSolver = new AStarRouteSolver(routingService);
+									break;
+								default:
+									routeSolver = new BidirectionalDijkstraRouteSolver(routingService);
+									break;
+							}
+							routeSolver.setQueueType(type);
+							return routeSolver;
+						}
+					};
+				}
+				return variants;
+			}
+		};
+	}
+}
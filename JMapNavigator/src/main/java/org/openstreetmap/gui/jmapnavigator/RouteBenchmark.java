@@ -0,0 +1,361 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Compares variants of graphs and solvers which must find the same routes: Runs the same random queries on each variant,
+ * measures query times and compares route times with the first variant. Query coordinates are snapped in each graph, giving the
+ * same road points in reordered or simplified graphs.
+ * <p>
+ * Before a benchmark on the real graph, the variants are checked on a small hand-built graph. The check throws on the first
+ * mismatching route time, so a broken variant does not only show up as a line in the benchmark output. {@link #main(String[])}
+ * runs the checks of all benchmarks.
+ */
+@SuppressWarnings("javadoc")
+public class RouteBenchmark {
+
+	// Route time difference tolerated by variants summing or rounding route times differently, relative to route time
+	public static final float ROUTE_TIME_TOLERANCE = 0.001f;
+
+	// Test graph: Grid of junctions connected by roads with nodes in between
+	private static final int TEST_GRID_SIZE = 8;
+	private static final int TEST_ROAD_NODES = 2;
+	private static final float TEST_GRID_SPACING = 0.01f;
+	private static final long TEST_GRAPH_SEED = 42;
+	private static final int TEST_QUERY_COUNT = 300;
+
+
+	/**
+	 * Graph and solver to route with
+	 */
+	public abstract static class Variant {
+
+		private final String name;
+		private final RouteGraph graph;
+
+		public Variant(String name, RouteGraph graph) {
+			this.name = name;
+			this.graph = graph;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public RouteGraph getGraph() {
+			return graph;
+		}
+
+		/**
+		 * @return Solver of variant on a service of the variant graph
+		 */
+		protected abstract AbstractRouteSolver createSolver(RoutingService routingService);
+	}
+
+	/**
+	 * Variant routing with Dijkstra
+	 */
+	public static class DijkstraVariant extends Variant {
+
+		public DijkstraVariant(String name, RouteGraph graph) {
+			super(name, graph);
+		}
+
+		@Override
+		protected AbstractRouteSolver createSolver(RoutingService routingService) {
+			return new DijkstraRouteSolver(routingService);
+		}
+	}
+
+	/**
+	 * Variant routing with A*
+	 */
+	public static class AStarVariant extends Variant {
+
+		public AStarVariant(String name, RouteGraph graph) {
+			super(name, graph);
+		}
+
+		@Override
+		protected AbstractRouteSolver createSolver(RoutingService routingService) {
+			return new AStarRouteSolver(routingService);
+		}
+	}
+
+	/**
+	 * Variant routing with bidirectional Dijkstra
+	 */
+	public static class BidirectionalVariant extends Variant {
+
+		public BidirectionalVariant(String name, RouteGraph graph) {
+			super(name, graph);
+		}
+
+		@Override
+		protected AbstractRouteSolver createSolver(RoutingService routingService) {
+			return new BidirectionalDijkstraRouteSolver(routingService);
+		}
+	}
+
+	/**
+	 * Creates the variants of a benchmark for a graph
+	 */
+	public interface VariantFactory {
+
+		Variant[] createVariants(RouteGraph graph);
+	}
+
+
+	/**
+	 * Route times and point counts of all queries of a variant
+	 */
+	private static class Result {
+
+		private final float[] routeTimes;
+		private final int[] routePoints;
+		private long runTime;
+		private long settledNodes;
+
+		Result(int queryCount) {
+			routeTimes = new float[queryCount];
+			routePoints = new int[queryCount];
+		}
+	}
+
+
+
+	/**
+	 * Checks variants on the test graph, then runs and compares them on a real graph
+	 *
+	 * @param tolerance
+	 *            Route time difference tolerated, relative to route time
+	 */
+	public static void run(VariantFactory factory, RouteGraph graph, int queryCount, float tolerance) {
+		check(factory, tolerance);
+		compare(factory.createVariants(graph), queryCount, tolerance);
+	}
+
+
+	/**
+	 * Runs variants on the test graph
+	 *
+	 * @throws IllegalStateException
+	 *             If a route time differs from the first variant
+	 */
+	public static void check(VariantFactory factory, float tolerance) {
+		Variant[] variants = factory.createVariants(createTestGraph());
+		float[] coords = createQueryCoords(variants[0].getGraph(), TEST_QUERY_COUNT);
+		Result reference = runQueries(variants[0], coords, 1);
+		for (int iVariant = 1; iVariant < variants.length; iVariant++) {
+			Result result = runQueries(variants[iVariant], coords, 1);
+			for (int i = 0; i < TEST_QUERY_COUNT; i++) {
+				if (!isSameRouteTime(reference.routeTimes[i], result.routeTimes[i], tolerance)) {
+					throw new IllegalStateException("Route time of " + variants[iVariant].getName() + " differs from "
+							+ variants[0].getName() + " on test graph, query " + i + ": " + result.routeTimes[i] + " instead of "
+							+ reference.routeTimes[i]);
+				}
+			}
+		}
+		System.out.println("Checked " + variants.length + " variants on test graph, same route times");
+	}
+
+
+	/**
+	 * Runs the same random queries on all variants and prints query times and differences to the first variant
+	 *
+	 * @return Number of queries with route time differing from the first variant, over all variants
+	 */
+	public static int compare(Variant[] variants, int queryCount, float tolerance) {
+		float[] coords = createQueryCoords(variants[0].getGraph(), queryCount);
+		Result[] results = new Result[variants.length];
+		for (int iVariant = 0; iVariant < variants.length; iVariant++) {
+			// First round warms up
+			results[iVariant] = runQueries(variants[iVariant], coords, 2);
+			System.out.println(String.format("%s: %.2fms and %d settled nodes per query", variants[iVariant].getName(),
+					results[iVariant].runTime / 1000000.0 / queryCount, results[iVariant].settledNodes / queryCount));
+		}
+
+		int totalMismatches = 0;
+		for (int iVariant = 1; iVariant < variants.length; iVariant++) {
+			int timeMismatches = 0;
+			int shapeMismatches = 0;
+			for (int i = 0; i < queryCount; i++) {
+				if (!isSameRouteTime(results[0].routeTimes[i], results[iVariant].routeTimes[i], tolerance)) {
+					timeMismatches++;
+				}
+				if (results[0].routePoints[i] != results[iVariant].routePoints[i]) {
+					shapeMismatches++;
+				}
+			}
+			System.out.println(variants[iVariant].getName() + ": " + timeMismatches + " mismatching route times, "
+					+ shapeMismatches + " routes with other point count than " + variants[0].getName());
+			totalMismatches += timeMismatches;
+		}
+		return totalMismatches;
+	}
+
+
+	/**
+	 * @return Start and target coordinates of queries, next to random nodes in the middle of roads
+	 */
+	private static float[] createQueryCoords(RouteGraph graph, int queryCount) {
+		Random rd = new Random(0);
+		float[] coords = new float[queryCount * 4];
+		for (int i = 0; i < queryCount * 2; i++) {
+			int node = rd.nextInt(graph.getNodeCount());
+			coords[2 * i] = graph.getNodeLat(node) + (rd.nextFloat() - 0.5f) * 0.001f;
+			coords[2 * i + 1] = graph.getNodeLon(node) + (rd.nextFloat() - 0.5f) * 0.001f;
+		}
+		return coords;
+	}
+
+	/**
+	 * Runs all queries in several rounds, without route cache each round searches again
+	 *
+	 * @return Route times and run time of last round
+	 */
+	private static Result runQueries(Variant variant, float[] coords, int rounds) {
+		RouteGraph graph = variant.getGraph();
+		RoutingService routingService = new RoutingService(graph, 1, 1, new RouteCache(0));
+		AbstractRouteSolver solver = variant.createSolver(routingService);
+		int queryCount = coords.length / 4;
+		RoutePoint[] points = new RoutePoint[queryCount * 2];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = graph.findNextRoadPoint(coords[2 * i], coords[2 * i + 1]);
+		}
+
+		Result result = new Result(queryCount);
+		for (int round = 0; round < rounds; round++) {
+			result.settledNodes = 0;
+			long startTime = System.nanoTime();
+			for (int i = 0; i < queryCount; i++) {
+				RouteResult route = routingService.calculateRoute(solver, points[2 * i], points[2 * i + 1], RouteOptions.DEFAULT);
+				result.routeTimes[i] = route.getRouteTime();
+				result.routePoints[i] = route.getRoute().size();
+				result.settledNodes += route.getSettledNodeCount();
+			}
+			result.runTime = System.nanoTime() - startTime;
+		}
+		routingService.shutdown();
+		return result;
+	}
+
+	private static boolean isSameRouteTime(float reference, float routeTime, float tolerance) {
+		return reference == routeTime || Math.abs(reference - routeTime) <= tolerance * Math.max(1.0f, reference);
+	}
+
+
+
+	/**
+	 * Builds a small deterministic graph: Grid of junctions about 1km apart, connected by roads with nodes in between. Roads have
+	 * random speeds, some are one-way, the two directions of a road have different route times.
+	 */
+	public static RouteGraph createTestGraph() {
+		Random rd = new Random(TEST_GRAPH_SEED);
+		FloatArrayList nodesLat = new FloatArrayList();
+		FloatArrayList nodesLon = new FloatArrayList();
+		for (int y = 0; y < TEST_GRID_SIZE; y++) {
+			for (int x = 0; x < TEST_GRID_SIZE; x++) {
+				nodesLat.add(48.0f + y * TEST_GRID_SPACING + (rd.nextFloat() - 0.5f) * 0.2f * TEST_GRID_SPACING);
+				nodesLon.add(9.0f + x * TEST_GRID_SPACING + (rd.nextFloat() - 0.5f) * 0.2f * TEST_GRID_SPACING);
+			}
+		}
+
+		IntArrayList edgeSources = new IntArrayList();
+		IntArrayList edgeTargets = new IntArrayList();
+		FloatArrayList edgeDists = new FloatArrayList();
+		for (int y = 0; y < TEST_GRID_SIZE; y++) {
+			for (int x = 0; x < TEST_GRID_SIZE; x++) {
+				int junction = y * TEST_GRID_SIZE + x;
+				if (x + 1 < TEST_GRID_SIZE) {
+					addTestRoad(junction, junction + 1, rd, nodesLat, nodesLon, edgeSources, edgeTargets, edgeDists);
+				}
+				if (y + 1 < TEST_GRID_SIZE) {
+					addTestRoad(junction, junction + TEST_GRID_SIZE, rd, nodesLat, nodesLon, edgeSources, edgeTargets, edgeDists);
+				}
+			}
+		}
+
+		// Sort edges by source
+		int nodeCount = nodesLat.size();
+		int[] edgeOffsets = new int[nodeCount + 1];
+		for (int i = 0; i < edgeSources.size(); i++) {
+			edgeOffsets[edgeSources.getInt(i) + 1]++;
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			edgeOffsets[i + 1] += edgeOffsets[i];
+		}
+		int[] edgeFill = new int[nodeCount];
+		int[] sortedTargets = new int[edgeSources.size()];
+		float[] sortedDists = new float[edgeSources.size()];
+		for (int i = 0; i < edgeSources.size(); i++) {
+			int source = edgeSources.getInt(i);
+			int edge = edgeOffsets[source] + edgeFill[source]++;
+			sortedTargets[edge] = edgeTargets.getInt(i);
+			sortedDists[edge] = edgeDists.getFloat(i);
+		}
+
+		int[] nodeIds = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			nodeIds[i] = i + 1;
+		}
+		return new RouteGraph(TEST_GRAPH_SEED, nodeIds, nodesLat.toFloatArray(), nodesLon.toFloatArray(), edgeOffsets,
+				sortedTargets, sortedDists);
+	}
+
+	/**
+	 * Adds road between two junctions with nodes in between
+	 */
+	private static void addTestRoad(int from, int to, Random rd, FloatArrayList nodesLat, FloatArrayList nodesLon,
+			IntArrayList edgeSources, IntArrayList edgeTargets, FloatArrayList edgeDists) {
+		float speed = 8.0f + rd.nextInt(28);
+		float backwardFactor = 1.0f + rd.nextFloat() * 0.2f;
+		boolean oneWay = rd.nextInt(8) == 0;
+
+		int previous = from;
+		for (int i = 1; i <= TEST_ROAD_NODES + 1; i++) {
+			int next;
+			if (i <= TEST_ROAD_NODES) {
+				float fraction = (float) i / (TEST_ROAD_NODES + 1);
+				next = nodesLat.size();
+				nodesLat.add(nodesLat.getFloat(from) + (nodesLat.getFloat(to) - nodesLat.getFloat(from)) * fraction
+						+ (rd.nextFloat() - 0.5f) * 0.1f * TEST_GRID_SPACING);
+				nodesLon.add(nodesLon.getFloat(from) + (nodesLon.getFloat(to) - nodesLon.getFloat(from)) * fraction
+						+ (rd.nextFloat() - 0.5f) * 0.1f * TEST_GRID_SPACING);
+			}
+			else {
+				next = to;
+			}
+
+			float dist = Utils.calcNodeDistPrecise(nodesLat.getFloat(previous), nodesLon.getFloat(previous),
+					nodesLat.getFloat(next), nodesLon.getFloat(next)) / speed;
+			edgeSources.add(previous);
+			edgeTargets.add(next);
+			edgeDists.add(dist);
+			if (!oneWay) {
+				edgeSources.add(next);
+				edgeTargets.add(previous);
+				edgeDists.add(dist * backwardFactor);
+			}
+			previous = next;
+		}
+	}
+
+
+
+	/**
+	 * Runs the checks of all benchmarks on the test graph, fails on the first mismatching route time
+	 */
+	public static void main(String[] args) throws Exception {
+		for (int solver = 0; solver < RadixNodeQueue.BENCHMARK_SOLVERS.length; solver++) {
+			check(RadixNodeQueue.createBenchmarkVariants(solver), 0.0f);
+		}
+		check(HilbertNodeOrder.createBenchmarkVariants(), ROUTE_TIME_TOLERANCE);
+		check(CompressedEdges.createBenchmarkVariants(), ROUTE_TIME_TOLERANCE);
+		check(ChainCompression.createBenchmarkVariants(), ROUTE_TIME_TOLERANCE);
+	}
+}
@@ -0,0 +1,181 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openstreetmap.gui.jmapnavigator.RouteResult.Status;
+
+
+/**
+ * Bounded cache of route results, keyed by graph checksum, snapped start and target point and solver. Least recently used results
+ * are evicted when the total number of route coordinates exceeds the capacity, so a few long routes do not take the memory of
+ * many short ones.
+ * <p>
+ * Results belong to the graph they were calculated on. After reloading graph or route times the graph has another checksum, so
+ * old results are not found anymore and are evicted as least recently used. A cache can be shared by services of different
+ * graphs. Only complete results (found or no route) are cached, partial results of stopped searches are not.
+ */
+@SuppressWarnings("javadoc")
+public class RouteCache {
+
+	private final long maxPointCount;
+
+	// Entries in access order, guarded by this
+	private final LinkedHashMap<Key, RouteResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long pointCount;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+
+	/**
+	 * Start and target on same road positions of same graph and same solver
+	 */
+	private static final class Key {
+
+		private final long graphChecksum;
+		private final String solverName;
+		private final int startNodeA;
+		private final int startNodeB;
+		private final int startFractionBits;
+		private final int targetNodeA;
+		private final int targetNodeB;
+		private final int targetFractionBits;
+
+		Key(RouteGraph graph, String solverName, RoutePoint start, RoutePoint target) {
+			this.graphChecksum = graph.getChecksum();
+			this.solverName = solverName;
+			this.startNodeA = start.NodeA;
+			this.startNodeB = start.NodeB;
+			this.startFractionBits = Float.floatToIntBits(start.Fraction);
+			this.targetNodeA = target.NodeA;
+			this.targetNodeB = target.NodeB;
+			this.targetFractionBits = Float.floatToIntBits(target.Fraction);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = Long.hashCode(graphChecksum);
+			hash = 31 * hash + solverName.hashCode();
+			hash = 31 * hash + startNodeA;
+			hash = 31 * hash + startNodeB;
+			hash = 31 * hash + startFractionBits;
+			hash = 31 * hash + targetNodeA;
+			hash = 31 * hash + targetNodeB;
+			hash = 31 * hash + targetFractionBits;
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return graphChecksum == other.graphChecksum && startNodeA == other.startNodeA && startNodeB == other.startNodeB
+					&& startFractionBits == other.startFractionBits && targetNodeA == other.targetNodeA
+					&& targetNodeB == other.targetNodeB && targetFractionBits == other.targetFractionBits
+					&& solverName.equals(other.solverName);
+		}
+	}
+
+
+
+	/**
+	 * @param maxPointCount
+	 *            Maximum total number of route coordinates of all cached results, 0 disables caching
+	 */
+	public RouteCache(long maxPointCount) {
+		this.maxPointCount = maxPointCount;
+	}
+
+
+	/**
+	 * @return Cached result of same query on same graph, null if not cached
+	 */
+	public RouteResult get(RouteGraph graph, String solverName, RoutePoint start, RoutePoint target) {
+		if (maxPointCount == 0) {
+			return null;
+		}
+		RouteResult result;
+		synchronized (this) {
+			result = entries.get(new Key(graph, solverName, start, target));
+		}
+		if (result != null) {
+			hitCount.incrementAndGet();
+		}
+		else {
+			missCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Adds result of a query to cache if it is complete and not larger than the capacity
+	 */
+	public void put(RouteGraph graph, String solverName, RouteResult result) {
+		if (maxPointCount == 0 || result.getStatus() != Status.Found && result.getStatus() != Status.NoRoute) {
+			return;
+		}
+		int resultPoints = result.getRoute().size();
+		if (resultPoints > maxPointCount) {
+			return;
+		}
+
+		synchronized (this) {
+			RouteResult replaced = entries.put(new Key(graph, solverName, result.getStartPoint(), result.getTargetPoint()),
+					result);
+			if (replaced != null) {
+				pointCount -= replaced.getRoute().size();
+			}
+			pointCount += resultPoints;
+
+			// Evict least recently used results
+			Iterator<Map.Entry<Key, RouteResult>> iterator = entries.entrySet().iterator();
+			while (pointCount > maxPointCount && iterator.hasNext()) {
+				pointCount -= iterator.next().getValue().getRoute().size();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all results
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		pointCount = 0;
+	}
+
+
+	public synchronized int getResultCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Total number of route coordinates of cached results
+	 */
+	public synchronized long getPointCount() {
+		return pointCount;
+	}
+
+	public long getMaxPointCount() {
+		return maxPointCount;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "RouteCache [results=" + getResultCount() + ", points=" + getPointCount() + "/" + maxPointCount + ", hits="
+				+ getHitCount() + ", misses=" + getMissCount() + "]";
+	}
+}
@@ -0,0 +1,697 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+
+/**
+ * Routing graph in compressed sparse row format. Nodes have dense indices 0..nodeCount-1, the outgoing edges of node i are
+ * stored at edge indices edgeOffsets[i]..edgeOffsets[i+1]-1. A reverse adjacency of incoming edges is built on construction
+ * if not given.
+ * <p>
+ * Data is accessed through int and float buffers, either wrapping heap arrays, mapped from a {@link MappedGraphFile} or copied
+ * to direct buffers by {@link #copyOffHeap()}. Edges of a graph simplified by {@link ChainCompression} have shape points in an
+ * {@link EdgeGeometry}.
+ * <p>
+ * After {@link #compressEdges()} edge targets and route times are stored as {@link CompressedEdges} instead of the edge
+ * buffers. Searches read edges with an {@link EdgeCursor}, which works on both storages. Edge indices and offsets stay the
+ * same, accessing a single edge by index decodes the edges of its node.
+ */
+@SuppressWarnings("javadoc")
+public class RouteGraph {
+
+	public static final String GRAPH_DATA_DIR = "route_graph";
+	public static final String GRAPH_FILE = GRAPH_DATA_DIR + File.separator + "graph.bin";
+	public static final String MAPPED_GRAPH_FILE = GRAPH_DATA_DIR + File.separator + "graph.csr";
+	public static final String COMPRESSED_GRAPH_FILE = GRAPH_DATA_DIR + File.separator + "graph-chains.csr";
+
+	private final int nodeCount;
+	// Checksum of graph file, identifies graph for derived data
+	private final long checksum;
+	// Node IDs as found in graph file
+	private final IntBuffer nodeIds;
+	private final FloatBuffer nodesLat;
+	private final FloatBuffer nodesLon;
+
+	private final IntBuffer edgeOffsets;
+	// Edge targets and route times, null if edges are compressed
+	private final IntBuffer edgeTargets;
+	private final FloatBuffer edgeDists;
+
+	// Reverse adjacency, incoming edges of node i at reverseEdgeOffsets[i]..reverseEdgeOffsets[i+1]-1
+	private final IntBuffer reverseEdgeOffsets;
+	private final IntBuffer reverseEdgeSources;
+	private final FloatBuffer reverseEdgeDists;
+
+	// Edges with quantized route times replacing the edge buffers, null if not compressed
+	private final CompressedEdges compressedEdges;
+	private final CompressedEdges compressedReverseEdges;
+
+	// Shape points of edges standing for road chains, null if all edges are straight
+	private final EdgeGeometry edgeGeometry;
+
+	// Spatial indices for nearest node and nearest road queries, built on first query
+	private volatile NodeGridIndex nodeGridIndex;
+	private volatile EdgeRTree edgeRTree;
+	// Strongly connected components, found on first use
+	private volatile StronglyConnectedComponents components;
+
+	// Maximum speed of all edges in m/s, determined on demand
+	private volatile float maxSpeed = Float.NaN;
+
+
+	public RouteGraph(long checksum, int[] nodeIds, float[] nodesLat, float[] nodesLon, int[] edgeOffsets, int[] edgeTargets,
+			float[] edgeDists) {
+		this(checksum, nodeIds, nodesLat, nodesLon, edgeOffsets, edgeTargets, edgeDists, null);
+	}
+
+	/**
+	 * @param edgeGeometry
+	 *            Shape points of forward edges, null if all edges are straight
+	 */
+	public RouteGraph(long checksum, int[] nodeIds, float[] nodesLat, float[] nodesLon, int[] edgeOffsets, int[] edgeTargets,
+			float[] edgeDists, EdgeGeometry edgeGeometry) {
+		this.checksum = checksum;
+		this.nodeCount = nodeIds.length;
+		this.nodeIds = IntBuffer.wrap(nodeIds);
+		this.nodesLat = FloatBuffer.wrap(nodesLat);
+		this.nodesLon = FloatBuffer.wrap(nodesLon);
+		this.edgeOffsets = IntBuffer.wrap(edgeOffsets);
+		this.edgeTargets = IntBuffer.wrap(edgeTargets);
+		this.edgeDists = FloatBuffer.wrap(edgeDists);
+
+		// Build reverse adjacency by counting sort of edges by target
+		int[] reverseEdgeOffsets = new int[nodeCount + 1];
+		int[] reverseEdgeSources = new int[edgeTargets.length];
+		float[] reverseEdgeDists = new float[edgeTargets.length];
+		for (int iEdge = 0; iEdge < edgeTargets.length; iEdge++) {
+			reverseEdgeOffsets[edgeTargets[iEdge] + 1]++;
+		}
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			reverseEdgeOffsets[iNode + 1] += reverseEdgeOffsets[iNode];
+		}
+		int[] reverseEdgeFill = Arrays.copyOf(reverseEdgeOffsets, nodeCount);
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			for (int iEdge = edgeOffsets[iNode]; iEdge < edgeOffsets[iNode + 1]; iEdge++) {
+				int iRevEdge = reverseEdgeFill[edgeTargets[iEdge]]++;
+				reverseEdgeSources[iRevEdge] = iNode;
+				reverseEdgeDists[iRevEdge] = edgeDists[iEdge];
+			}
+		}
+		this.reverseEdgeOffsets = IntBuffer.wrap(reverseEdgeOffsets);
+		this.reverseEdgeSources = IntBuffer.wrap(reverseEdgeSources);
+		this.reverseEdgeDists = FloatBuffer.wrap(reverseEdgeDists);
+		this.edgeGeometry = edgeGeometry;
+		this.compressedEdges = null;
+		this.compressedReverseEdges = null;
+	}
+
+	/**
+	 * Constructor for graph data including reverse adjacency, buffers are used directly
+	 */
+	public RouteGraph(long checksum, IntBuffer nodeIds, FloatBuffer nodesLat, FloatBuffer nodesLon, IntBuffer edgeOffsets,
+			IntBuffer edgeTargets, FloatBuffer edgeDists, IntBuffer reverseEdgeOffsets, IntBuffer reverseEdgeSources,
+			FloatBuffer reverseEdgeDists) {
+		this(checksum, nodeIds, nodesLat, nodesLon, edgeOffsets, edgeTargets, edgeDists, reverseEdgeOffsets, reverseEdgeSources,
+				reverseEdgeDists, null);
+	}
+
+	/**
+	 * Constructor for graph data including reverse adjacency, buffers are used directly
+	 *
+	 * @param edgeGeometry
+	 *            Shape points of forward edges, null if all edges are straight
+	 */
+	public RouteGraph(long checksum, IntBuffer nodeIds, FloatBuffer nodesLat, FloatBuffer nodesLon, IntBuffer edgeOffsets,
+			IntBuffer edgeTargets, FloatBuffer edgeDists, IntBuffer reverseEdgeOffsets, IntBuffer reverseEdgeSources,
+			FloatBuffer reverseEdgeDists, EdgeGeometry edgeGeometry) {
+		this(checksum, nodeIds, nodesLat, nodesLon, edgeOffsets, edgeTargets, edgeDists, reverseEdgeOffsets, reverseEdgeSources,
+				reverseEdgeDists, edgeGeometry, null, null);
+	}
+
+	/**
+	 * Constructor for graph data with either edge buffers or compressed edges
+	 */
+	private RouteGraph(long checksum, IntBuffer nodeIds, FloatBuffer nodesLat, FloatBuffer nodesLon, IntBuffer edgeOffsets,
+			IntBuffer edgeTargets, FloatBuffer edgeDists, IntBuffer reverseEdgeOffsets, IntBuffer reverseEdgeSources,
+			FloatBuffer reverseEdgeDists, EdgeGeometry edgeGeometry, CompressedEdges compressedEdges,
+			CompressedEdges compressedReverseEdges) {
+		this.checksum = checksum;
+		this.nodeCount = nodeIds.limit();
+		this.nodeIds = nodeIds;
+		this.nodesLat = nodesLat;
+		this.nodesLon = nodesLon;
+		this.edgeOffsets = edgeOffsets;
+		this.edgeTargets = edgeTargets;
+		this.edgeDists = edgeDists;
+		this.reverseEdgeOffsets = reverseEdgeOffsets;
+		this.reverseEdgeSources = reverseEdgeSources;
+		this.reverseEdgeDists = reverseEdgeDists;
+		this.edgeGeometry = edgeGeometry;
+		this.compressedEdges = compressedEdges;
+		this.compressedReverseEdges = compressedReverseEdges;
+	}
+
+
+	/**
+	 * Reads graph from graph file as produced by SimpleOSM2Graph
+	 */
+	public static RouteGraph loadFromFile(String graphFile) throws IOException {
+		System.out.println("Start loading map graph");
+		long startTime = System.currentTimeMillis();
+
+		CheckedInputStream checkedStream = new CheckedInputStream(new FileInputStream(graphFile), new CRC32());
+		try (DataInputStream reader = new DataInputStream(new BufferedInputStream(checkedStream))) {
+			int numVertices = reader.readInt();
+			int[] nodeIds = new int[numVertices];
+			float[] nodesLat = new float[numVertices];
+			float[] nodesLon = new float[numVertices];
+			int[] edgeOffsets = new int[numVertices + 1];
+			int[] edgeTargets = new int[Math.max(16, numVertices * 2)];
+			float[] edgeDists = new float[edgeTargets.length];
+			Int2IntMap nodeIdIndices = new Int2IntOpenHashMap(numVertices);
+			nodeIdIndices.defaultReturnValue(-1);
+
+			int edgeCount = 0;
+			for (int iNode = 0; iNode < numVertices; iNode++) {
+				nodeIds[iNode] = reader.readInt();
+				nodesLat[iNode] = (float) reader.readDouble(); // TODO Double?
+				nodesLon[iNode] = (float) reader.readDouble();
+				nodeIdIndices.put(nodeIds[iNode], iNode);
+
+				int numEdges = reader.readInt();
+				if (edgeCount + numEdges > edgeTargets.length) {
+					int newLength = Math.max(edgeTargets.length * 2, edgeCount + numEdges);
+					edgeTargets = Arrays.copyOf(edgeTargets, newLength);
+					edgeDists = Arrays.copyOf(edgeDists, newLength);
+				}
+				for (int iEdge = 0; iEdge < numEdges; iEdge++) {
+					// Stores target node IDs, replaced by node indices below
+					edgeTargets[edgeCount] = reader.readInt();
+					edgeDists[edgeCount] = (float) reader.readDouble(); // TODO Double?
+					edgeCount++;
+				}
+				edgeOffsets[iNode + 1] = edgeCount;
+			}
+
+			// Translate edge targets to node indices, drop edges to unknown nodes
+			int unknownTargets = 0;
+			int iEdgeOut = 0;
+			int iEdgeIn = 0;
+			for (int iNode = 0; iNode < numVertices; iNode++) {
+				int edgesEnd = edgeOffsets[iNode + 1];
+				edgeOffsets[iNode] = iEdgeOut;
+				for (; iEdgeIn < edgesEnd; iEdgeIn++) {
+					int target = nodeIdIndices.get(edgeTargets[iEdgeIn]);
+					if (target == -1) {
+						unknownTargets++;
+						continue;
+					}
+					edgeTargets[iEdgeOut] = target;
+					edgeDists[iEdgeOut] = edgeDists[iEdgeIn];
+					iEdgeOut++;
+				}
+			}
+			edgeOffsets[numVertices] = iEdgeOut;
+			if (unknownTargets > 0) {
+				System.err.println("Dropped " + unknownTargets + " edges to unknown nodes");
+			}
+
+			while (reader.read() != -1) {
+				// Read remaining bytes for checksum
+			}
+			RouteGraph graph = new RouteGraph(checkedStream.getChecksum().getValue(), nodeIds, nodesLat, nodesLon, edgeOffsets,
+					Arrays.copyOf(edgeTargets, iEdgeOut), Arrays.copyOf(edgeDists, iEdgeOut));
+			System.out.println("Finished loading map graph with " + numVertices + " nodes and " + iEdgeOut + " edges after "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+			return graph;
+		}
+	}
+
+
+
+	/**
+	 * Copies graph data to direct buffers outside of the Java heap, so heap size and garbage collection times do not grow with
+	 * the graph. Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size. Spatial indices
+	 * and components are built again on the heap when needed.
+	 *
+	 * @return Graph with same data in direct buffers, this graph if it is off heap or mapped already
+	 */
+	public RouteGraph copyOffHeap() {
+		if (isOffHeap()) {
+			return this;
+		}
+		System.out.println("Start copying graph off heap");
+		long startTime = System.currentTimeMillis();
+		RouteGraph graph;
+		if (compressedEdges != null) {
+			graph = new RouteGraph(checksum, copyToDirect(nodeIds), copyToDirect(nodesLat), copyToDirect(nodesLon),
+					copyToDirect(edgeOffsets), null, null, copyToDirect(reverseEdgeOffsets), null, null,
+					(edgeGeometry != null) ? edgeGeometry.copyOffHeap() : null, compressedEdges.copyOffHeap(),
+					compressedReverseEdges.copyOffHeap());
+		}
+		else {
+			graph = new RouteGraph(checksum, copyToDirect(nodeIds), copyToDirect(nodesLat), copyToDirect(nodesLon),
+					copyToDirect(edgeOffsets), copyToDirect(edgeTargets), copyToDirect(edgeDists), copyToDirect(reverseEdgeOffsets),
+					copyToDirect(reverseEdgeSources), copyToDirect(reverseEdgeDists),
+					(edgeGeometry != null) ? edgeGeometry.copyOffHeap() : null);
+		}
+		System.out.println("Finished copying graph off heap after " + (System.currentTimeMillis() - startTime) + "ms");
+		return graph;
+	}
+
+	/**
+	 * @return True if all graph data is in direct or mapped buffers
+	 */
+	public boolean isOffHeap() {
+		boolean edgesOffHeap = (compressedEdges != null)
+				? compressedEdges.isOffHeap() && compressedReverseEdges.isOffHeap()
+				: edgeTargets.isDirect() && edgeDists.isDirect() && reverseEdgeSources.isDirect() && reverseEdgeDists.isDirect();
+		return nodeIds.isDirect() && nodesLat.isDirect() && nodesLon.isDirect() && edgeOffsets.isDirect()
+				&& reverseEdgeOffsets.isDirect() && edgesOffHeap && (edgeGeometry == null || edgeGeometry.isOffHeap());
+	}
+
+	/**
+	 * Replaces edge buffers by {@link CompressedEdges} of both directions, which take about half of the memory. Route times are
+	 * rounded to multiples of the compression scale, so all searches on the compressed graph - Dijkstra, A*, ALT,
+	 * bidirectional, contraction hierarchies, isochrones and matrices - return sums of quantized route times. Bounds derived from
+	 * the graph, the maximum speed of A* and the landmark tables of ALT, are calculated from the rounded route times as well and
+	 * stay admissible for them. The compressed graph has a derived checksum, so results and artifacts of the exact route times
+	 * are not mixed up with it.
+	 *
+	 * @return Graph with compressed edges, this graph if edges are compressed already
+	 */
+	public RouteGraph compressEdges() {
+		if (compressedEdges != null) {
+			return this;
+		}
+		System.out.println("Start compressing graph edges");
+		long startTime = System.currentTimeMillis();
+		CompressedEdges forward = CompressedEdges.build(this, false);
+		CompressedEdges reverse = CompressedEdges.build(this, true);
+		long compressedChecksum = deriveChecksum(checksum, "quantized" + CompressedEdges.QUANTIZATION_VERSION);
+		RouteGraph graph = new RouteGraph(compressedChecksum, nodeIds, nodesLat, nodesLon, edgeOffsets, null, null,
+				reverseEdgeOffsets, null, null, edgeGeometry, forward, reverse);
+		System.out.println("Finished compressing graph edges to " + (forward.getSizeBytes() + reverse.getSizeBytes())
+				+ " bytes, scale " + forward.getScale() + "s, after " + (System.currentTimeMillis() - startTime) + "ms");
+		return graph;
+	}
+
+	/**
+	 * @return True if edges are stored as {@link CompressedEdges} with quantized route times
+	 */
+	public boolean isEdgesCompressed() {
+		return compressedEdges != null;
+	}
+
+	/**
+	 * @return Direct buffer in native byte order with content of buffer from index 0 to limit
+	 */
+	static IntBuffer copyToDirect(IntBuffer buffer) {
+		IntBuffer source = buffer.duplicate();
+		source.rewind();
+		IntBuffer copy = ByteBuffer.allocateDirect(4 * source.limit()).order(ByteOrder.nativeOrder()).asIntBuffer();
+		copy.put(source);
+		copy.rewind();
+		return copy;
+	}
+
+	/**
+	 * @return Direct buffer in native byte order with content of buffer from index 0 to limit
+	 */
+	static FloatBuffer copyToDirect(FloatBuffer buffer) {
+		FloatBuffer source = buffer.duplicate();
+		source.rewind();
+		FloatBuffer copy = ByteBuffer.allocateDirect(4 * source.limit()).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		copy.put(source);
+		copy.rewind();
+		return copy;
+	}
+
+
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return Checksum for a graph derived from a graph with given checksum, different for each derivation
+	 */
+	public static long deriveChecksum(long checksum, String derivation) {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < 8; i++) {
+			crc.update((int) (checksum >>> (8 * i)));
+		}
+		crc.update(derivation.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeOffsets.get(nodeCount);
+	}
+
+	public int getNodeId(int node) {
+		return nodeIds.get(node);
+	}
+
+	public float getNodeLat(int node) {
+		return nodesLat.get(node);
+	}
+
+	public float getNodeLon(int node) {
+		return nodesLon.get(node);
+	}
+
+	/**
+	 * @return Strongly connected components of graph, calculated on first call
+	 */
+	public StronglyConnectedComponents getComponents() {
+		StronglyConnectedComponents result = components;
+		if (result == null) {
+			synchronized (this) {
+				if (components == null) {
+					components = StronglyConnectedComponents.calculate(this);
+				}
+				result = components;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds node of largest strongly connected component closest to given coordinate using spatial index
+	 *
+	 * @return Index of closest node or -1 if graph is empty
+	 */
+	public int findNextNode(float lat, float lon) {
+		return findNextNode(lat, lon, true);
+	}
+
+	/**
+	 * Finds node closest to given coordinate using spatial index
+	 *
+	 * @param largestComponentOnly
+	 *            Only find nodes from which all nodes of the largest component can be reached and vice versa
+	 * @return Index of closest node or -1 if graph is empty
+	 */
+	public int findNextNode(float lat, float lon, boolean largestComponentOnly) {
+		NodeGridIndex index = nodeGridIndex;
+		if (index == null) {
+			synchronized (this) {
+				if (nodeGridIndex == null) {
+					nodeGridIndex = new NodeGridIndex(this);
+				}
+				index = nodeGridIndex;
+			}
+		}
+		return index.findNextNode(lat, lon, largestComponentOnly ? getComponents() : null);
+	}
+
+	/**
+	 * Finds closest point on any road of the largest strongly connected component to given coordinate using spatial index
+	 *
+	 * @return Point on road or null if graph has no edges
+	 */
+	public RoutePoint findNextRoadPoint(float lat, float lon) {
+		return findNextRoadPoint(lat, lon, true);
+	}
+
+	/**
+	 * Finds closest point on any edge to given coordinate using spatial index
+	 *
+	 * @param largestComponentOnly
+	 *            Only find points on roads between nodes of the largest component
+	 * @return Point on road or null if graph has no edges
+	 */
+	public RoutePoint findNextRoadPoint(float lat, float lon, boolean largestComponentOnly) {
+		EdgeRTree index = edgeRTree;
+		if (index == null) {
+			synchronized (this) {
+				if (edgeRTree == null) {
+					edgeRTree = new EdgeRTree(this);
+				}
+				index = edgeRTree;
+			}
+		}
+		return index.findNextRoadPoint(lat, lon, largestComponentOnly ? getComponents() : null);
+	}
+
+	/**
+	 * @return Index of first outgoing edge of node
+	 */
+	public int getEdgesStart(int node) {
+		return edgeOffsets.get(node);
+	}
+
+	/**
+	 * @return Index after last outgoing edge of node
+	 */
+	public int getEdgesEnd(int node) {
+		return edgeOffsets.get(node + 1);
+	}
+
+	public int getEdgeTarget(int edge) {
+		if (compressedEdges != null) {
+			int node = findOffsetNode(edgeOffsets, edge);
+			return compressedEdges.getTarget(node, edge - edgeOffsets.get(node));
+		}
+		return edgeTargets.get(edge);
+	}
+
+	public float getEdgeDist(int edge) {
+		if (compressedEdges != null) {
+			int node = findOffsetNode(edgeOffsets, edge);
+			return compressedEdges.getDist(node, edge - edgeOffsets.get(node));
+		}
+		return edgeDists.get(edge);
+	}
+
+	/**
+	 * @return Edge from node to node with smallest route time, -1 if there is none
+	 */
+	public int findEdge(int from, int to) {
+		int bestEdge = -1;
+		for (int iEdge = getEdgesStart(from); iEdge < getEdgesEnd(from); iEdge++) {
+			if (getEdgeTarget(iEdge) == to && (bestEdge == -1 || getEdgeDist(iEdge) < getEdgeDist(bestEdge))) {
+				bestEdge = iEdge;
+			}
+		}
+		return bestEdge;
+	}
+
+	/**
+	 * @return Shape points of edges standing for road chains, null if all edges are straight lines between their nodes
+	 */
+	public EdgeGeometry getEdgeGeometry() {
+		return edgeGeometry;
+	}
+
+	/**
+	 * @return Index of first incoming edge of node
+	 */
+	public int getReverseEdgesStart(int node) {
+		return reverseEdgeOffsets.get(node);
+	}
+
+	/**
+	 * @return Index after last incoming edge of node
+	 */
+	public int getReverseEdgesEnd(int node) {
+		return reverseEdgeOffsets.get(node + 1);
+	}
+
+	public int getReverseEdgeSource(int reverseEdge) {
+		if (compressedReverseEdges != null) {
+			int node = findOffsetNode(reverseEdgeOffsets, reverseEdge);
+			return compressedReverseEdges.getTarget(node, reverseEdge - reverseEdgeOffsets.get(node));
+		}
+		return reverseEdgeSources.get(reverseEdge);
+	}
+
+	public float getReverseEdgeDist(int reverseEdge) {
+		if (compressedReverseEdges != null) {
+			int node = findOffsetNode(reverseEdgeOffsets, reverseEdge);
+			return compressedReverseEdges.getDist(node, reverseEdge - reverseEdgeOffsets.get(node));
+		}
+		return reverseEdgeDists.get(reverseEdge);
+	}
+
+	/**
+	 * Binary search for the node an edge belongs to
+	 *
+	 * @return Last node with offset not greater than edge
+	 */
+	private int findOffsetNode(IntBuffer offsets, int edge) {
+		int low = 0;
+		int high = nodeCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets.get(mid) <= edge) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+
+	/**
+	 * Reads outgoing or incoming edges of one node after another from edge buffers or compressed edges, allocates nothing.
+	 * Reusable for any number of nodes, but only used by one search at a time.
+	 */
+	public final class EdgeCursor {
+
+		private final boolean backward;
+		// Null if edges are not compressed
+		private final CompressedEdges.Cursor compressedCursor;
+		private int edge;
+		private int edgesEnd;
+		private int target;
+		private float dist;
+
+		private EdgeCursor(boolean backward) {
+			this.backward = backward;
+			CompressedEdges edges = backward ? compressedReverseEdges : compressedEdges;
+			this.compressedCursor = (edges != null) ? edges.createCursor() : null;
+		}
+
+		/**
+		 * Starts reading edges of node
+		 */
+		public void reset(int node) {
+			edge = (backward ? getReverseEdgesStart(node) : getEdgesStart(node)) - 1;
+			edgesEnd = backward ? getReverseEdgesEnd(node) : getEdgesEnd(node);
+			if (compressedCursor != null) {
+				compressedCursor.reset(node);
+			}
+		}
+
+		/**
+		 * Moves to next edge
+		 *
+		 * @return False if node has no more edges
+		 */
+		public boolean next() {
+			if (edge + 1 >= edgesEnd) {
+				return false;
+			}
+			edge++;
+			if (compressedCursor != null) {
+				compressedCursor.next();
+				target = compressedCursor.getTarget();
+				dist = compressedCursor.getDist();
+			}
+			else if (backward) {
+				target = reverseEdgeSources.get(edge);
+				dist = reverseEdgeDists.get(edge);
+			}
+			else {
+				target = edgeTargets.get(edge);
+				dist = edgeDists.get(edge);
+			}
+			return true;
+		}
+
+		/**
+		 * @return Index of current edge, of reverse edge if backward
+		 */
+		public int getEdge() {
+			return edge;
+		}
+
+		/**
+		 * @return Target of current edge, source if backward
+		 */
+		public int getTarget() {
+			return target;
+		}
+
+		public float getDist() {
+			return dist;
+		}
+	}
+
+	/**
+	 * @param backward
+	 *            Read incoming edges, cursor targets are edge sources
+	 * @return New cursor, should be reused for all nodes of a search
+	 */
+	public EdgeCursor createEdgeCursor(boolean backward) {
+		return new EdgeCursor(backward);
+	}
+
+
+	/**
+	 * Determines the maximum speed (geodesic segment length divided by segment route time) over all edges. Edges with shape
+	 * points are measured per segment between the shape points, with the route time split at their fractions, so the speed is
+	 * the same as on the uncompressed roads. Result is cached.
+	 *
+	 * @return Maximum speed in m/s, infinite if there are edges without route time
+	 */
+	public float getMaxSpeed() {
+		if (Float.isNaN(maxSpeed)) {
+			maxSpeed = calcMaxSpeed();
+			System.out.println("Max speed of graph: " + maxSpeed + "m/s");
+		}
+		return maxSpeed;
+	}
+
+	private float calcMaxSpeed() {
+		float speed = 0.0f;
+		EdgeCursor edges = createEdgeCursor(false);
+		for (int iNode = 0; iNode < nodeCount; iNode++) {
+			edges.reset(iNode);
+			while (edges.next()) {
+				int iEdge = edges.getEdge();
+				int target = edges.getTarget();
+				float edgeDist = edges.getDist();
+				int pointsStart = (edgeGeometry != null) ? edgeGeometry.getPointsStart(iEdge) : 0;
+				int pointsEnd = (edgeGeometry != null) ? edgeGeometry.getPointsEnd(iEdge) : 0;
+
+				// Segments between edge source, shape points and edge target
+				float segmentLat = getNodeLat(iNode);
+				float segmentLon = getNodeLon(iNode);
+				float segmentFraction = 0.0f;
+				for (int iPoint = pointsStart; iPoint <= pointsEnd; iPoint++) {
+					float nextLat = (iPoint < pointsEnd) ? edgeGeometry.getPointLat(iPoint) : getNodeLat(target);
+					float nextLon = (iPoint < pointsEnd) ? edgeGeometry.getPointLon(iPoint) : getNodeLon(target);
+					float nextFraction = (iPoint < pointsEnd) ? edgeGeometry.getPointFraction(iPoint) : 1.0f;
+
+					float length = Utils.calcNodeDistPrecise(segmentLat, segmentLon, nextLat, nextLon);
+					if (length > 0.0f) {
+						float segmentDist = (nextFraction - segmentFraction) * edgeDist;
+						if (segmentDist <= 0.0f) {
+							return Float.POSITIVE_INFINITY;
+						}
+						speed = Math.max(speed, length / segmentDist);
+					}
+
+					segmentLat = nextLat;
+					segmentLon = nextLon;
+					segmentFraction = nextFraction;
+				}
+			}
+		}
+		return speed;
+	}
+}
@@ -0,0 +1,72 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import org.openstreetmap.gui.jmapnavigator.SearchContext.SearchListener;
+
+
+/**
+ * Immutable options of a route query. Options are changed by creating modified copies.
+ */
+@SuppressWarnings("javadoc")
+public final class RouteOptions {
+
+	public static final RouteOptions DEFAULT = new RouteOptions(null, 0, 0);
+
+	// Notified about search progress in routing thread, null if not needed
+	private final SearchListener progressListener;
+	// Maximum time for search in milliseconds, 0 if unlimited
+	private final long timeout;
+	// Maximum number of nodes settled by search, 0 if unlimited
+	private final int settledNodeBudget;
+
+
+	private RouteOptions(SearchListener progressListener, long timeout, int settledNodeBudget) {
+		this.progressListener = progressListener;
+		this.timeout = timeout;
+		this.settledNodeBudget = settledNodeBudget;
+	}
+
+
+	public SearchListener getProgressListener() {
+		return progressListener;
+	}
+
+	/**
+	 * @return Maximum time for search in milliseconds, 0 if unlimited
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return Maximum number of nodes settled by search, 0 if unlimited
+	 */
+	public int getSettledNodeBudget() {
+		return settledNodeBudget;
+	}
+
+
+	/**
+	 * @return Copy of options with given progress listener
+	 */
+	public RouteOptions withProgressListener(SearchListener listener) {
+		return new RouteOptions(listener, timeout, settledNodeBudget);
+	}
+
+	/**
+	 * @param timeout
+	 *            Maximum time for search in milliseconds, 0 if unlimited. Search is stopped with a partial result afterwards.
+	 * @return Copy of options with given timeout
+	 */
+	public RouteOptions withTimeout(long timeout) {
+		return new RouteOptions(progressListener, timeout, settledNodeBudget);
+	}
+
+	/**
+	 * @param budget
+	 *            Maximum number of nodes settled by search, 0 if unlimited. Search is stopped with a partial result afterwards.
+	 * @return Copy of options with given settled node budget
+	 */
+	public RouteOptions withSettledNodeBudget(int budget) {
+		return new RouteOptions(progressListener, timeout, budget);
+	}
+}
@@ -0,0 +1,140 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+
+/**
+ * Start or target of a route. Either a graph node or a virtual node on the road between node A and node B. A virtual node is
+ * connected to A and B with the edge route times split at its position.
+ */
+@SuppressWarnings("javadoc")
+public class RoutePoint {
+
+	public final float Lat;
+	public final float Lon;
+	public final int NodeA;
+	// -1 if point is node A
+	public final int NodeB;
+	// Position between A (0) and B (1) as fraction of route time A->B
+	public final float Fraction;
+	// Position between A (0) and B (1) as fraction of route time B->A, differs from Fraction on roads with shape points
+	public final float ReverseFraction;
+	// Route times of the edges A->B and B->A, infinite if there is no edge in this direction
+	public final float DistAB;
+	public final float DistBA;
+
+
+	public RoutePoint(float lat, float lon, int nodeA, int nodeB, float fraction, float distAB, float distBA) {
+		this(lat, lon, nodeA, nodeB, fraction, fraction, distAB, distBA);
+	}
+
+	public RoutePoint(float lat, float lon, int nodeA, int nodeB, float fraction, float reverseFraction, float distAB,
+			float distBA) {
+		super();
+		Lat = lat;
+		Lon = lon;
+		NodeA = nodeA;
+		NodeB = nodeB;
+		Fraction = fraction;
+		ReverseFraction = reverseFraction;
+		DistAB = distAB;
+		DistBA = distBA;
+	}
+
+	/**
+	 * Creates point located at a graph node
+	 */
+	public static RoutePoint ofNode(RouteGraph graph, int node) {
+		return new RoutePoint(graph.getNodeLat(node), graph.getNodeLon(node), node, -1, 0.0f, 0.0f, 0.0f);
+	}
+
+
+	public boolean isNode() {
+		return NodeB == -1;
+	}
+
+	/**
+	 * @return Number of graph nodes the point is connected to
+	 */
+	public int getNodeCount() {
+		return isNode() ? 1 : 2;
+	}
+
+	public int getNode(int i) {
+		return (i == 0) ? NodeA : NodeB;
+	}
+
+	/**
+	 * @return Route time from this point to node i when starting here, infinite if not reachable
+	 */
+	public float getStartCost(int i) {
+		if (isNode()) {
+			return 0.0f;
+		}
+		return (i == 0) ? splitDist(ReverseFraction, DistBA) : splitDist(1.0f - Fraction, DistAB);
+	}
+
+	/**
+	 * @return Route time from node i to this point when arriving here, infinite if not reachable
+	 */
+	public float getTargetCost(int i) {
+		if (isNode()) {
+			return 0.0f;
+		}
+		return (i == 0) ? splitDist(Fraction, DistAB) : splitDist(1.0f - ReverseFraction, DistBA);
+	}
+
+	/**
+	 * Part of an edge route time, no route time if part is empty even if edge does not exist
+	 */
+	private static float splitDist(float part, float dist) {
+		if (part <= 0.0f) {
+			return 0.0f;
+		}
+		return part * dist;
+	}
+
+
+	/**
+	 * Route time from start to target if both are on the same road without passing a graph node
+	 *
+	 * @return Route time or infinite if there is no such route
+	 */
+	public static float calcDirectDist(RoutePoint start, RoutePoint target) {
+		if (start.isNode() || target.isNode()) {
+			if (start.isNode() && target.isNode() && start.NodeA == target.NodeA) {
+				return 0.0f;
+			}
+			return Float.POSITIVE_INFINITY;
+		}
+
+		// Target position as fractions of route times A->B and B->A of start road
+		float targetFraction;
+		float targetReverseFraction;
+		if (start.NodeA == target.NodeA && start.NodeB == target.NodeB) {
+			targetFraction = target.Fraction;
+			targetReverseFraction = target.ReverseFraction;
+		}
+		else if (start.NodeA == target.NodeB && start.NodeB == target.NodeA) {
+			targetFraction = 1.0f - target.ReverseFraction;
+			targetReverseFraction = 1.0f - target.Fraction;
+		}
+		else {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		if (targetFraction >= start.Fraction) {
+			return splitDist(targetFraction - start.Fraction, start.DistAB);
+		}
+		else {
+			return splitDist(start.ReverseFraction - targetReverseFraction, start.DistBA);
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		if (isNode()) {
+			return "Node " + NodeA;
+		}
+		return "Road " + NodeA + "-" + NodeB + "@" + Fraction;
+	}
+}
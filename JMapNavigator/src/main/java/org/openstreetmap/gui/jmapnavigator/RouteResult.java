@@ -0,0 +1,125 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+
+
+/**
+ * Immutable result of a route query. A search stopped early by deadline or budget returns the best route to the target found so
+ * far, or a partial route to the best candidate node if the target was not reached yet.
+ */
+@SuppressWarnings("javadoc")
+public final class RouteResult {
+
+	public enum Status {
+		// Shortest route found
+		Found,
+		// Target not reachable from start
+		NoRoute,
+		// Search stopped before finished
+		DeadlineExceeded, BudgetExceeded, Cancelled
+	}
+
+	private final String solverName;
+	private final Status status;
+	// Route ends at target point, false for partial routes to a candidate node
+	private final boolean reachesTarget;
+	private final RoutePoint startPoint;
+	private final RoutePoint targetPoint;
+	// Route ordered from target to start
+	private final List<Coordinate> route;
+	private final float routeTime;
+	private final int settledNodeCount;
+	private final long calculationTime;
+
+
+	/**
+	 * @param reachesTarget
+	 *            Route ends at target point, false for partial routes
+	 * @param route
+	 *            Coordinates of route from target (or end of partial route) to start, empty if no route found
+	 * @param routeTime
+	 *            Route time in seconds, infinite if no route found
+	 * @param calculationTime
+	 *            Time to calculate route in milliseconds
+	 */
+	public RouteResult(String solverName, Status status, boolean reachesTarget, RoutePoint startPoint, RoutePoint targetPoint,
+			List<Coordinate> route, float routeTime, int settledNodeCount, long calculationTime) {
+		this.solverName = solverName;
+		this.status = status;
+		this.reachesTarget = reachesTarget;
+		this.startPoint = startPoint;
+		this.targetPoint = targetPoint;
+		this.route = Collections.unmodifiableList(new ArrayList<>(route));
+		this.routeTime = routeTime;
+		this.settledNodeCount = settledNodeCount;
+		this.calculationTime = calculationTime;
+	}
+
+
+	public String getSolverName() {
+		return solverName;
+	}
+
+	public RoutePoint getStartPoint() {
+		return startPoint;
+	}
+
+	public RoutePoint getTargetPoint() {
+		return targetPoint;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return True if shortest route was found
+	 */
+	public boolean isFound() {
+		return status == Status.Found;
+	}
+
+	/**
+	 * @return True if route ends at target point, not necessarily shortest route if search was stopped
+	 */
+	public boolean reachesTarget() {
+		return reachesTarget && routeTime != Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Coordinates of route from target (or end of partial route) to start, empty if no route found
+	 */
+	public List<Coordinate> getRoute() {
+		return route;
+	}
+
+	/**
+	 * @return Route time in seconds, infinite if no route found
+	 */
+	public float getRouteTime() {
+		return routeTime;
+	}
+
+	public int getSettledNodeCount() {
+		return settledNodeCount;
+	}
+
+	/**
+	 * @return Time to calculate route in milliseconds
+	 */
+	public long getCalculationTime() {
+		return calculationTime;
+	}
+
+
+	@Override
+	public String toString() {
+		return solverName + " " + startPoint + " -> " + targetPoint + ": " + status + ", "
+				+ (route.isEmpty() ? "no route" : ((reachesTarget ? "" : "partial ") + routeTime + "s, " + route.size() + " points"))
+				+ ", " + settledNodeCount + " settled nodes, " + calculationTime + "ms";
+	}
+}
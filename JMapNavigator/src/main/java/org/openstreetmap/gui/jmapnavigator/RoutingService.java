@@ -0,0 +1,214 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openstreetmap.gui.jmapnavigator.RouteResult.Status;
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+
+
+/**
+ * Calculates routes on a shared graph concurrently. Queries are run on a bounded thread pool, each with a {@link SearchContext}
+ * taken from a pool of contexts, so solvers and graph are shared between all queries. Results of repeated queries are taken
+ * from a {@link RouteCache}.
+ */
+@SuppressWarnings("javadoc")
+public class RoutingService {
+
+	// Default maximum number of queries waiting for a routing thread
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	// Default maximum number of route coordinates in cache
+	private static final long DEFAULT_CACHE_POINTS = 2000000;
+
+	private final RouteGraph graph;
+	private final ThreadPoolExecutor routingExecutor;
+	// Contexts not used by a query at the moment, created on demand. Keeps one per routing thread, contexts of further
+	// concurrent searches (calling threads, matrix rows) are dropped when released.
+	private final ArrayBlockingQueue<SearchContext> contextPool;
+	private final RouteCache routeCache;
+
+
+
+	/**
+	 * Creates service with one routing thread per core
+	 */
+	public RoutingService(RouteGraph graph) {
+		this(graph, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param threadCount
+	 *            Number of routing threads
+	 * @param queueCapacity
+	 *            Maximum number of queries waiting for a routing thread, further queries are rejected
+	 */
+	public RoutingService(RouteGraph graph, int threadCount, int queueCapacity) {
+		this(graph, threadCount, queueCapacity, new RouteCache(DEFAULT_CACHE_POINTS));
+	}
+
+	/**
+	 * @param routeCache
+	 *            Cache for route results, may be shared with services of other graphs as results are kept per graph
+	 */
+	public RoutingService(RouteGraph graph, int threadCount, int queueCapacity, RouteCache routeCache) {
+		this.graph = graph;
+		this.routeCache = routeCache;
+		this.contextPool = new ArrayBlockingQueue<>(threadCount);
+
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.routingExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "RoutingThread-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+
+	public RouteGraph getGraph() {
+		return graph;
+	}
+
+	public RouteCache getRouteCache() {
+		return routeCache;
+	}
+
+
+
+	/**
+	 * Work for a routing thread besides route queries
+	 */
+	public interface RoutingTask<T> {
+
+		/**
+		 * @param query
+		 *            Future of the task, search should stop when it is cancelled
+		 */
+		T run(Future<?> query);
+	}
+
+
+	/**
+	 * Submits route query to routing threads. Cancelling the future stops the search.
+	 *
+	 * @return Future result of query, completed exceptionally with a RejectedExecutionException if too many queries are waiting
+	 */
+	public CompletableFuture<RouteResult> submit(final AbstractRouteSolver solver, final RoutePoint startPoint,
+			final RoutePoint targetPoint, final RouteOptions options) {
+		return submit(new RoutingTask<RouteResult>() {
+
+			@Override
+			public RouteResult run(Future<?> query) {
+				return calculateRoute(solver, startPoint, targetPoint, options, query);
+			}
+		});
+	}
+
+	/**
+	 * Submits task to routing threads, shares their thread limit and queue with route queries
+	 *
+	 * @return Future result of task, completed exceptionally with a RejectedExecutionException if too many queries are waiting
+	 */
+	public <T> CompletableFuture<T> submit(final RoutingTask<T> task) {
+		final CompletableFuture<T> query = new CompletableFuture<>();
+		try {
+			routingExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (query.isDone()) {
+						// Cancelled while waiting
+						return;
+					}
+					try {
+						query.complete(task.run(query));
+					}
+					catch (Throwable e) {
+						query.completeExceptionally(e);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			query.completeExceptionally(e);
+		}
+		return query;
+	}
+
+	/**
+	 * Calculates route in calling thread
+	 */
+	public RouteResult calculateRoute(AbstractRouteSolver solver, RoutePoint startPoint, RoutePoint targetPoint,
+			RouteOptions options) {
+		return calculateRoute(solver, startPoint, targetPoint, options, null);
+	}
+
+	/**
+	 * Calculates route in calling thread, search stops when query is cancelled
+	 */
+	private RouteResult calculateRoute(AbstractRouteSolver solver, RoutePoint startPoint, RoutePoint targetPoint,
+			RouteOptions options, Future<?> query) {
+		if (graph.getComponents().isUnreachable(startPoint, targetPoint)) {
+			// No search needed if start and target are in components without route between them
+			return new RouteResult(solver.getName(), Status.NoRoute, false, startPoint, targetPoint,
+					Collections.<Coordinate> emptyList(), Float.POSITIVE_INFINITY, 0, 0);
+		}
+
+		RouteResult cachedResult = routeCache.get(graph, solver.getName(), startPoint, targetPoint);
+		if (cachedResult != null) {
+			return cachedResult;
+		}
+
+		SearchContext context = acquireContext();
+		RouteResult result;
+		try {
+			context.init(startPoint, targetPoint, options, query);
+			context.setQueueType(solver.getQueueType());
+			result = solver.doRouting(context);
+		}
+		finally {
+			releaseContext(context);
+		}
+		routeCache.put(graph, solver.getName(), result);
+		return result;
+	}
+
+
+	/**
+	 * Takes a context from the pool, creates one if none is free. Must be released after the search.
+	 */
+	SearchContext acquireContext() {
+		SearchContext context = contextPool.poll();
+		if (context == null) {
+			context = new SearchContext(graph);
+		}
+		return context;
+	}
+
+	/**
+	 * Resets context and returns it to the pool, drops it if the pool is full
+	 */
+	void releaseContext(SearchContext context) {
+		context.reset();
+		contextPool.offer(context);
+	}
+
+
+	/**
+	 * Stops routing threads after running and waiting queries are finished
+	 */
+	public void shutdown() {
+		routingExecutor.shutdown();
+	}
+}
@@ -0,0 +1,181 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.concurrent.Future;
+
+import org.openstreetmap.gui.jmapnavigator.RouteResult.Status;
+
+
+/**
+ * Search state of one route query: Heaps and search trees for a forward and a backward search, start, target and best route
+ * found. Contexts are reused for many queries by a {@link RoutingService}, but used by only one query at a time. Unidirectional
+ * searches only use the forward buffers. Resetting is cheap, search trees are only re-stamped with a new epoch.
+ */
+@SuppressWarnings("javadoc")
+public class SearchContext {
+
+	private static final int HEAP_INITIAL_CAPACITY = 100000;
+	// Settled nodes between deadline checks
+	private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+	/**
+	 * Notified about progress of a search, called from routing thread
+	 */
+	public interface SearchListener {
+
+		void nodeSettled(int nodeIndex);
+	}
+
+	/**
+	 * Listener ignoring all events
+	 */
+	public static final SearchListener NO_LISTENER = new SearchListener() {
+
+		@Override
+		public void nodeSettled(int nodeIndex) {
+		}
+	};
+
+
+	// Search forward from start
+	public INodeQueue forwardHeap;
+	public final SearchTree forwardTree;
+	// Search backward from target, predecessors point towards target
+	public INodeQueue backwardHeap;
+	public final SearchTree backwardTree;
+	// Edge cursors of the graph for outgoing edges (forward search) and incoming edges (backward search)
+	public final RouteGraph.EdgeCursor forwardEdges;
+	public final RouteGraph.EdgeCursor backwardEdges;
+
+	// Queues of each type, radix queues created on first use
+	private final int nodeCount;
+	private final NodeDistHeap forwardBinaryHeap;
+	private final NodeDistHeap backwardBinaryHeap;
+	private RadixNodeQueue forwardRadixQueue;
+	private RadixNodeQueue backwardRadixQueue;
+
+	// Query
+	public RoutePoint startPoint;
+	public RoutePoint targetPoint;
+	public SearchListener listener = NO_LISTENER;
+	public long startTime;
+	// Landmarks chosen by ALT solvers, created on first use
+	public Landmarks.Query landmarkQuery;
+
+	// Stop conditions
+	private Future<?> query;
+	private long deadline;
+	private int settledNodeBudget;
+	private int stopChecks;
+	// Reason search was stopped, null if not stopped
+	public Status stopReason;
+
+	// Best route found so far, over foundNode (unidirectional) or meetingNode (bidirectional), -1 if none
+	public float bestRouteDist;
+	public int foundNode;
+	public int meetingNode;
+
+
+
+	public SearchContext(RouteGraph graph) {
+		this.nodeCount = graph.getNodeCount();
+		forwardBinaryHeap = new NodeDistHeap(HEAP_INITIAL_CAPACITY, nodeCount);
+		backwardBinaryHeap = new NodeDistHeap(HEAP_INITIAL_CAPACITY, nodeCount);
+		forwardHeap = forwardBinaryHeap;
+		backwardHeap = backwardBinaryHeap;
+		forwardTree = new SearchTree(nodeCount);
+		backwardTree = new SearchTree(nodeCount);
+		forwardEdges = graph.createEdgeCursor(false);
+		backwardEdges = graph.createEdgeCursor(true);
+		reset();
+	}
+
+
+	/**
+	 * Prepares context for a new query
+	 */
+	public void init(RoutePoint startPoint, RoutePoint targetPoint, RouteOptions options, Future<?> query) {
+		reset();
+		this.startPoint = startPoint;
+		this.targetPoint = targetPoint;
+		this.listener = (options.getProgressListener() != null) ? options.getProgressListener() : NO_LISTENER;
+		this.startTime = System.currentTimeMillis();
+
+		this.query = query;
+		this.deadline = (options.getTimeout() > 0) ? System.nanoTime() + options.getTimeout() * 1000000L : Long.MAX_VALUE;
+		this.settledNodeBudget = (options.getSettledNodeBudget() > 0) ? options.getSettledNodeBudget() : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Selects type of the forward and backward queue, must be called before search. Reset selects binary heaps again.
+	 */
+	public void setQueueType(INodeQueue.Type type) {
+		switch (type) {
+		case Radix:
+			if (forwardRadixQueue == null) {
+				forwardRadixQueue = new RadixNodeQueue(nodeCount);
+				backwardRadixQueue = new RadixNodeQueue(nodeCount);
+			}
+			forwardHeap = forwardRadixQueue;
+			backwardHeap = backwardRadixQueue;
+			break;
+		default:
+			forwardHeap = forwardBinaryHeap;
+			backwardHeap = backwardBinaryHeap;
+			break;
+		}
+	}
+
+	/**
+	 * Checks if search must be stopped because query was cancelled, deadline passed or budget is used up. Called by searches
+	 * once per settled node.
+	 *
+	 * @return True if search must stop, reason is set in stopReason
+	 */
+	public boolean shouldStop() {
+		if (query != null && query.isCancelled()) {
+			stopReason = Status.Cancelled;
+		}
+		else if (getSettledNodeCount() >= settledNodeBudget) {
+			stopReason = Status.BudgetExceeded;
+		}
+		else if (deadline != Long.MAX_VALUE && ++stopChecks % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+			stopReason = Status.DeadlineExceeded;
+		}
+		return stopReason != null;
+	}
+
+	/**
+	 * Clears all search state
+	 */
+	public void reset() {
+		forwardHeap.resetEmpty();
+		forwardTree.reset();
+		backwardHeap.resetEmpty();
+		backwardTree.reset();
+		forwardHeap = forwardBinaryHeap;
+		backwardHeap = backwardBinaryHeap;
+
+		startPoint = null;
+		targetPoint = null;
+		listener = NO_LISTENER;
+		bestRouteDist = Float.POSITIVE_INFINITY;
+		foundNode = -1;
+		meetingNode = -1;
+		if (landmarkQuery != null) {
+			landmarkQuery.reset();
+		}
+
+		query = null;
+		deadline = Long.MAX_VALUE;
+		settledNodeBudget = Integer.MAX_VALUE;
+		stopChecks = 0;
+		stopReason = null;
+	}
+
+	/**
+	 * @return Number of nodes settled by both search directions
+	 */
+	public int getSettledNodeCount() {
+		return forwardTree.getSettledNodeCount() + backwardTree.getSettledNodeCount();
+	}
+}
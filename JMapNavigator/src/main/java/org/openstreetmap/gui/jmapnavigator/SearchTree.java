@@ -0,0 +1,119 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+
+/**
+ * Shortest path tree of one search direction in dense per-node arrays. Each node is stamped with the epoch of the query that
+ * discovered it, so a new query only increments the epoch instead of clearing the arrays. Discovering, updating and settling
+ * nodes allocates nothing.
+ */
+@SuppressWarnings("javadoc")
+public class SearchTree {
+
+	// Stamps are epoch for discovered and epoch + 1 for settled nodes, 0 is never used as epoch
+	private static final int FIRST_EPOCH = 1;
+
+	private final float[] dist;
+	private final int[] pred;
+	private final int[] epoch;
+	private int currentEpoch = FIRST_EPOCH;
+	// Settled nodes in order of settling, for partial routes and statistics
+	private final IntArrayList settledNodes = new IntArrayList();
+
+
+
+	public SearchTree(int nodeCount) {
+		dist = new float[nodeCount];
+		pred = new int[nodeCount];
+		epoch = new int[nodeCount];
+	}
+
+
+	/**
+	 * Starts a new empty tree by incrementing the epoch, arrays are only cleared when the epoch overflows
+	 */
+	public void reset() {
+		if (currentEpoch >= Integer.MAX_VALUE - 2) {
+			Arrays.fill(epoch, 0);
+			currentEpoch = FIRST_EPOCH;
+		}
+		else {
+			currentEpoch += 2;
+		}
+		settledNodes.clear();
+	}
+
+
+	public int getNodeCount() {
+		return dist.length;
+	}
+
+	public boolean isDiscovered(int nodeIndex) {
+		return epoch[nodeIndex] >= currentEpoch;
+	}
+
+	public boolean isSettled(int nodeIndex) {
+		return epoch[nodeIndex] == currentEpoch + 1;
+	}
+
+	/**
+	 * @return Distance of node from search start, infinite if not discovered
+	 */
+	public float getDist(int nodeIndex) {
+		return isDiscovered(nodeIndex) ? dist[nodeIndex] : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Predecessor of node towards search start, -1 for start nodes
+	 */
+	public int getPred(int nodeIndex) {
+		return pred[nodeIndex];
+	}
+
+	/**
+	 * Discovers a node or updates distance and predecessor of a discovered node
+	 *
+	 * @param predIndex
+	 *            Predecessor towards search start, -1 for start nodes
+	 */
+	public void setDist(int nodeIndex, int predIndex, float nodeDist) {
+		if (!isDiscovered(nodeIndex)) {
+			epoch[nodeIndex] = currentEpoch;
+		}
+		dist[nodeIndex] = nodeDist;
+		pred[nodeIndex] = predIndex;
+	}
+
+	/**
+	 * Marks discovered node as settled, its distance is final
+	 */
+	public void settle(int nodeIndex) {
+		epoch[nodeIndex] = currentEpoch + 1;
+		settledNodes.add(nodeIndex);
+	}
+
+
+	public int getSettledNodeCount() {
+		return settledNodes.size();
+	}
+
+	public int getSettledNode(int i) {
+		return settledNodes.getInt(i);
+	}
+
+
+	/**
+	 * @return Nodes from node to search start, following predecessors. Empty if node is -1.
+	 */
+	public IntArrayList collectPath(int nodeIndex) {
+		IntArrayList path = new IntArrayList();
+		while (nodeIndex != -1) {
+			path.add(nodeIndex);
+			nodeIndex = pred[nodeIndex];
+		}
+		return path;
+	}
+}
@@ -0,0 +1,288 @@
+package org.openstreetmap.gui.jmapnavigator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Strongly connected components of a {@link RouteGraph}, found with an iterative Tarjan search over the edge arrays. Tarjan
+ * completes a component only after all components reachable from it, so a route from component a to a different component b
+ * requires a > b. Together with the components reaching and reached from the largest component, many unreachable pairs are
+ * rejected without search.
+ * <p>
+ * Roads on small islands (parking lots, private roads, map cutoffs) are not in the largest component, snapping avoids them by
+ * default.
+ */
+@SuppressWarnings("javadoc")
+public class StronglyConnectedComponents {
+
+	private final int[] nodeComponents;
+	private final int[] componentSizes;
+	private final int largestComponent;
+	// Components with a route to the largest component and from the largest component
+	private final boolean[] reachesLargest;
+	private final boolean[] reachedFromLargest;
+
+
+	private StronglyConnectedComponents(int[] nodeComponents, int[] componentSizes, int largestComponent,
+			boolean[] reachesLargest, boolean[] reachedFromLargest) {
+		this.nodeComponents = nodeComponents;
+		this.componentSizes = componentSizes;
+		this.largestComponent = largestComponent;
+		this.reachesLargest = reachesLargest;
+		this.reachedFromLargest = reachedFromLargest;
+	}
+
+
+	/**
+	 * Finds components of all nodes in O(nodes + edges)
+	 */
+	public static StronglyConnectedComponents calculate(RouteGraph graph) {
+		System.out.println("Start finding strongly connected components");
+		long startTime = System.currentTimeMillis();
+
+		int nodeCount = graph.getNodeCount();
+		int[] nodeComponents = new int[nodeCount];
+		// Discovery index of node, -1 if not visited yet
+		int[] nodeIndices = new int[nodeCount];
+		int[] lowLinks = new int[nodeCount];
+		// Nodes visited but not assigned to a component yet
+		int[] tarjanStack = new int[nodeCount];
+		int tarjanStackSize = 0;
+		// Recursion replaced by stack of nodes and their next edge to follow
+		int[] callNodes = new int[nodeCount];
+		int[] callEdges = new int[nodeCount];
+		int callDepth = 0;
+		int[] componentSizes = new int[16];
+		int componentCount = 0;
+		int nextIndex = 0;
+
+		for (int i = 0; i < nodeCount; i++) {
+			nodeComponents[i] = -1;
+			nodeIndices[i] = -1;
+		}
+
+		for (int root = 0; root < nodeCount; root++) {
+			if (nodeIndices[root] != -1) {
+				continue;
+			}
+			nodeIndices[root] = lowLinks[root] = nextIndex++;
+			tarjanStack[tarjanStackSize++] = root;
+			callNodes[callDepth] = root;
+			callEdges[callDepth] = graph.getEdgesStart(root);
+			callDepth++;
+
+			while (callDepth > 0) {
+				int node = callNodes[callDepth - 1];
+				int edge = callEdges[callDepth - 1];
+				if (edge < graph.getEdgesEnd(node)) {
+					callEdges[callDepth - 1]++;
+					int target = graph.getEdgeTarget(edge);
+					if (nodeIndices[target] == -1) {
+						// Descend to target
+						nodeIndices[target] = lowLinks[target] = nextIndex++;
+						tarjanStack[tarjanStackSize++] = target;
+						callNodes[callDepth] = target;
+						callEdges[callDepth] = graph.getEdgesStart(target);
+						callDepth++;
+					}
+					else if (nodeComponents[target] == -1) {
+						// Target still on Tarjan stack
+						lowLinks[node] = Math.min(lowLinks[node], nodeIndices[target]);
+					}
+					continue;
+				}
+
+				// All edges followed, return from node
+				callDepth--;
+				if (lowLinks[node] == nodeIndices[node]) {
+					if (componentCount == componentSizes.length) {
+						componentSizes = Arrays.copyOf(componentSizes, componentCount * 2);
+					}
+					int member;
+					do {
+						member = tarjanStack[--tarjanStackSize];
+						nodeComponents[member] = componentCount;
+						componentSizes[componentCount]++;
+					} while (member != node);
+					componentCount++;
+				}
+				if (callDepth > 0) {
+					int parent = callNodes[callDepth - 1];
+					lowLinks[parent] = Math.min(lowLinks[parent], lowLinks[node]);
+				}
+			}
+		}
+
+		int largestComponent = -1;
+		for (int c = 0; c < componentCount; c++) {
+			if (largestComponent == -1 || componentSizes[c] > componentSizes[largestComponent]) {
+				largestComponent = c;
+			}
+		}
+
+		// Breadth first searches from largest component, forward and backward. Reuses arrays as queue and visited marks.
+		boolean[] reachesLargest = new boolean[componentCount];
+		boolean[] reachedFromLargest = new boolean[componentCount];
+		if (largestComponent != -1) {
+			markReachable(graph, nodeComponents, largestComponent, false, reachedFromLargest, nodeIndices, callNodes);
+			markReachable(graph, nodeComponents, largestComponent, true, reachesLargest, nodeIndices, callNodes);
+		}
+
+		StronglyConnectedComponents components = new StronglyConnectedComponents(nodeComponents,
+				Arrays.copyOf(componentSizes, componentCount), largestComponent, reachesLargest, reachedFromLargest);
+		System.out.println("Finished finding " + componentCount + " strongly connected components after "
+				+ (System.currentTimeMillis() - startTime) + "ms, largest with "
+				+ ((largestComponent != -1) ? componentSizes[largestComponent] : 0) + " of " + nodeCount + " nodes");
+		return components;
+	}
+
+	/**
+	 * Marks all components reachable from a component, or reaching it if backward
+	 */
+	private static void markReachable(RouteGraph graph, int[] nodeComponents, int component, boolean backward,
+			boolean[] componentMarks, int[] visitedTemp, int[] queueTemp) {
+		int nodeCount = graph.getNodeCount();
+		int queueEnd = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			visitedTemp[i] = 0;
+			if (nodeComponents[i] == component) {
+				visitedTemp[i] = 1;
+				queueTemp[queueEnd++] = i;
+			}
+		}
+
+		RouteGraph.EdgeCursor edges = graph.createEdgeCursor(backward);
+		for (int queueStart = 0; queueStart < queueEnd; queueStart++) {
+			int node = queueTemp[queueStart];
+			componentMarks[nodeComponents[node]] = true;
+			edges.reset(node);
+			while (edges.next()) {
+				int edgeNode = edges.getTarget();
+				if (visitedTemp[edgeNode] == 0) {
+					visitedTemp[edgeNode] = 1;
+					queueTemp[queueEnd++] = edgeNode;
+				}
+			}
+		}
+	}
+
+
+
+	public int getComponent(int node) {
+		return nodeComponents[node];
+	}
+
+	public int getComponentCount() {
+		return componentSizes.length;
+	}
+
+	public int getComponentSize(int component) {
+		return componentSizes[component];
+	}
+
+	/**
+	 * @return Component with most nodes, -1 if graph is empty
+	 */
+	public int getLargestComponent() {
+		return largestComponent;
+	}
+
+	public boolean isInLargestComponent(int node) {
+		return nodeComponents[node] == largestComponent;
+	}
+
+
+	/**
+	 * Checks in constant time if there is surely no route from one node to another. Not all unreachable pairs are detected.
+	 *
+	 * @return True if target node is not reachable from start node, false if it is or might be reachable
+	 */
+	public boolean isUnreachable(int startNode, int targetNode) {
+		int startComponent = nodeComponents[startNode];
+		int targetComponent = nodeComponents[targetNode];
+		if (startComponent == targetComponent) {
+			return false;
+		}
+		// Components are completed in reverse topological order
+		if (startComponent < targetComponent) {
+			return true;
+		}
+		if (startComponent == largestComponent) {
+			return !reachedFromLargest[targetComponent];
+		}
+		if (targetComponent == largestComponent) {
+			return !reachesLargest[startComponent];
+		}
+		return false;
+	}
+
+	/**
+	 * Checks in constant time if there is surely no route from start point to target point
+	 *
+	 * @return True if target is not reachable from start, false if it is or might be reachable
+	 */
+	public boolean isUnreachable(RoutePoint start, RoutePoint target) {
+		if (RoutePoint.calcDirectDist(start, target) != Float.POSITIVE_INFINITY) {
+			return false;
+		}
+		for (int i = 0; i < start.getNodeCount(); i++) {
+			if (start.getStartCost(i) == Float.POSITIVE_INFINITY) {
+				continue;
+			}
+			for (int j = 0; j < target.getNodeCount(); j++) {
+				if (target.getTargetCost(j) != Float.POSITIVE_INFINITY && !isUnreachable(start.getNode(i), target.getNode(j))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+
+	/**
+	 * Finds components and compares constant time rejection with searches between random nodes
+	 *
+	 * @param args
+	 *            [queries]
+	 */
+	public static void main(String[] args) throws Exception {
+		int queryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+
+		RouteGraph graph = MappedGraphFile.loadOrConvert(RouteGraph.GRAPH_FILE, RouteGraph.MAPPED_GRAPH_FILE);
+		StronglyConnectedComponents components = calculate(graph);
+		int singleNodeComponents = 0;
+		for (int c = 0; c < components.getComponentCount(); c++) {
+			if (components.getComponentSize(c) == 1) {
+				singleNodeComponents++;
+			}
+		}
+		System.out.println(singleNodeComponents + " components with a single node");
+
+		// Check rejections against one-to-all searches, never reject a reachable node
+		Random rd = new Random(0);
+		int unreachable = 0;
+		int rejected = 0;
+		int wrongRejections = 0;
+		for (int i = 0; i < queryCount; i++) {
+			int source = rd.nextInt(graph.getNodeCount());
+			SearchTree tree = DijkstraRouteSolver.searchAll(graph, source, false);
+			for (int k = 0; k < 100; k++) {
+				int target = rd.nextInt(graph.getNodeCount());
+				boolean reachable = tree.getDist(target) != Float.POSITIVE_INFINITY;
+				if (!reachable) {
+					unreachable++;
+				}
+				if (components.isUnreachable(source, target)) {
+					rejected++;
+					if (reachable) {
+						wrongRejections++;
+					}
+				}
+			}
+		}
+		System.out.println(unreachable + " unreachable pairs, " + rejected + " rejected without search, " + wrongRejections
+				+ " wrong rejections");
+	}
+}